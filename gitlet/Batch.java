@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch mode ("java gitlet.Main --batch"): runs many commands in one
+ * process, one per line of the standard input, as if each line were
+ * the arguments of a separate java gitlet.Main.  Words are separated by
+ * blanks; double quotes group words, and a backslash takes the next
+ * character literally.  Blank lines and lines starting with '#' are
+ * skipped.  Each command's output is followed by a line holding the
+ * record separator character (ASCII 30) and then "ok", or "error" if
+ * the command failed, so that output can be split reliably.  A failing
+ * command does not stop the batch.
+ *
+ * @author Mohammad Khizar
+ */
+class Batch {
+
+    /** Argument that makes Main run a batch. */
+    static final String START = "--batch";
+
+    /** Character starting the line that ends each command's output. */
+    static final char SEPARATOR = '\u001e';
+
+    /** Run the commands read from IN, writing their output to the
+     *  standard output.  Output is flushed whenever no further input is
+     *  waiting. */
+    static void run(InputStream in) {
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+            new FileOutputStream(FileDescriptor.out), Utils.BUFFER_SIZE),
+            false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        Command command = new Command();
+        try (BufferedReader lines = new BufferedReader(
+                 new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                boolean ok = true;
+                try {
+                    command.parseLine(split(line));
+                } catch (GitletException excp) {
+                    out.println(excp.getMessage());
+                    ok = false;
+                } catch (RuntimeException excp) {
+                    out.flush();
+                    excp.printStackTrace();
+                    ok = false;
+                }
+                out.println(SEPARATOR + (ok ? "ok" : "error"));
+                if (!lines.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /** Return the words of LINE: blank-separated, grouped by double
+     *  quotes, with backslash escaping the next character.  Throws a
+     *  GitletException if a quote is left open. */
+    static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false, quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+                inWord = true;
+            } else if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) {
+            throw new GitletException("Unterminated quote.");
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
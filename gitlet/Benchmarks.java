@@ -0,0 +1,310 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * A benchmark suite for the hot paths of Gitlet: SHA-1 hashing, commit
+ * serialization and encoding, reading and making commits, and the
+ * status, checkout, log and merge commands against a generated
+ * repository.  Run it in an empty directory:
+ *
+ *     java gitlet.Benchmarks [--json FILE] [--filter TEXT]
+ *         [--files N] [--commits N] [--warmup N] [--iterations N]
+ *         [--time MS]
+ *
+ * Each benchmark runs WARMUP untimed and ITERATIONS timed iterations of
+ * about TIME milliseconds each, calling its operation as often as fits,
+ * and reports the mean time per call with the half-width of its 99.9%
+ * confidence interval.  Only benchmarks whose names contain TEXT are
+ * run.  The repository is made by RepoGenerator, with N files and a
+ * history of N commits, and its branch "other" is checked out and
+ * merged.
+ * Results are printed as a table and, with --json, written to FILE in
+ * the layout of JMH's JSON output, so that runs of different releases
+ * can be compared with the same tools.
+ *
+ * @author Mohammad Khizar
+ */
+public class Benchmarks {
+
+    /** Student's t for a two-sided 99.9% interval with many degrees of
+     *  freedom; small runs understate the error slightly. */
+    private static final double T_999 = 3.291;
+
+    /** Names of the benchmarks that need the generated repository. */
+    private static final String[] REPOSITORY_BENCHMARKS = {
+        "getCommit.cached", "getCommit.decode", "tree.flatten", "status",
+        "log", "log.n20", "checkout", "merge", "makeCommit",
+    };
+
+    /** Sink for benchmark results, so that no call is optimized away. */
+    private static volatile int _sink;
+
+    /** Untimed iterations per benchmark. */
+    private int _warmup = 3;
+    /** Timed iterations per benchmark. */
+    private int _iterations = 5;
+    /** Length of an iteration, in nanoseconds. */
+    private long _iterationNanos = 500_000_000L;
+    /** Only benchmarks whose names contain this are run. */
+    private String _filter = "";
+    /** Where the table of results goes. */
+    private final PrintStream _out = System.out;
+    /** Results so far. */
+    private final List<Result> _results = new ArrayList<>();
+
+    /** The outcome of one benchmark. */
+    private static class Result {
+        /** Name of the benchmark. */
+        private String name;
+        /** Parameter name and value, or null. */
+        private String[] param;
+        /** Mean time per call of each timed iteration, in microseconds. */
+        private double[] raw;
+        /** Mean of RAW. */
+        private double score;
+        /** Half-width of the confidence interval of SCORE. */
+        private double error;
+    }
+
+    /** Run the benchmarks given by ARGS. */
+    public static void main(String... args) {
+        if (new File(".gitlet").exists()) {
+            System.err.println("Run in an empty directory.");
+            System.exit(1);
+        }
+        Benchmarks bench = new Benchmarks();
+        String json = null;
+        int files = 1000, commits = 200;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--json":
+                json = value;
+                break;
+            case "--filter":
+                bench._filter = value;
+                break;
+            case "--files":
+                files = Integer.parseInt(value);
+                break;
+            case "--commits":
+                commits = Integer.parseInt(value);
+                break;
+            case "--warmup":
+                bench._warmup = Integer.parseInt(value);
+                break;
+            case "--iterations":
+                bench._iterations = Integer.parseInt(value);
+                break;
+            case "--time":
+                bench._iterationNanos = Long.parseLong(value) * 1_000_000L;
+                break;
+            default:
+                System.err.println("Unknown option " + args[i] + ".");
+                System.exit(1);
+            }
+        }
+        bench.runAll(files, commits);
+        if (json != null) {
+            Utils.writeContents(new File(json), bench.toJson());
+        }
+    }
+
+    /** Run every benchmark selected, against a repository of FILES files
+     *  and COMMITS commits. */
+    private void runAll(int files, int commits) {
+        for (int size : new int[] {1 << 10, 1 << 16, 1 << 20}) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            run("sha1", "size", size, () -> Utils.sha1(data));
+        }
+        for (int n : new int[] {10, 1000, 100000}) {
+            Commits c = commitWithFiles(n);
+            byte[] serialized = Utils.serialize(c);
+            byte[] encoded = c.encode();
+            run("serialize", "files", n, () -> Utils.serialize(c));
+            run("deserialize", "files", n,
+                () -> Utils.deserialize(serialized, Commits.class));
+            run("encode", "files", n, c::encode);
+            run("decode", "files", n, () -> Commits.decode(encoded));
+        }
+        boolean any = false;
+        for (String name : REPOSITORY_BENCHMARKS) {
+            any |= selected(name);
+        }
+        if (!any) {
+            return;
+        }
+
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Command c = new Command();
+        try {
+            new RepoGenerator(commits, files).generate(c);
+            String head = c.getHashedHead();
+            String tree = c.getHead().getTree();
+            run("getCommit.cached", null, 0,
+                () -> Commits.getCommit(head));
+            run("getCommit.decode", null, 0,
+                () -> Commits.decode(ObjectStore.readCommit(head)));
+            run("tree.flatten", "files", files, () -> Tree.flatten(tree));
+            run("status", "files", files, () -> command(c, "status"));
+            run("log", "commits", commits, () -> command(c, "log"));
+            run("log.n20", "commits", commits,
+                () -> command(c, "log", "-n", "20"));
+            run("checkout", "files", files, () -> {
+                    command(c, "checkout", "other");
+                    return command(c, "checkout", "master");
+                });
+            run("merge", "files", files, () -> {
+                    command(c, "reset", head);
+                    return command(c, "merge", "other");
+                });
+            command(c, "reset", head);
+            File changed = new File(RepoGenerator.path(0));
+            Utils.writeContents(changed, "benchmark change\n");
+            command(c, "add", RepoGenerator.path(0));
+            run("makeCommit", "files", files,
+                () -> new Commits("benchmark", new Date(), head));
+            c.clearStage();
+            command(c, "checkout", head, "--", RepoGenerator.path(0));
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /** Run COMMAND through C, returning a value for the sink. */
+    private static Object command(Command c, String... command) {
+        c.parseLine(command);
+        return command;
+    }
+
+    /** Return true iff benchmark NAME is selected by the filter. */
+    private boolean selected(String name) {
+        return name.contains(_filter);
+    }
+
+    /** Time OP as benchmark NAME with parameter PARAM set to VALUE, or
+     *  with no parameter if PARAM is null, if NAME is selected. */
+    private void run(String name, String param, int value,
+                     Callable<Object> op) {
+        if (!selected(name)) {
+            return;
+        }
+        try {
+            for (int k = 0; k < _warmup; k += 1) {
+                iteration(op);
+            }
+            Result r = new Result();
+            r.name = name;
+            r.param = param == null ? null
+                : new String[] {param, Integer.toString(value)};
+            r.raw = new double[_iterations];
+            for (int k = 0; k < _iterations; k += 1) {
+                r.raw[k] = iteration(op) / 1e3;
+            }
+            double sum = 0, squares = 0;
+            for (double x : r.raw) {
+                sum += x;
+            }
+            r.score = sum / r.raw.length;
+            for (double x : r.raw) {
+                squares += (x - r.score) * (x - r.score);
+            }
+            r.error = r.raw.length < 2 ? Double.NaN
+                : T_999 * Math.sqrt(squares / (r.raw.length - 1)
+                                    / r.raw.length);
+            _results.add(r);
+            _out.printf(Locale.ROOT, "%-20s %-16s %14.3f +- %10.3f us/op%n",
+                        name, param == null ? "" : param + "=" + value,
+                        r.score, r.error);
+        } catch (RuntimeException excp) {
+            throw excp;
+        } catch (Exception excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Call OP repeatedly for one iteration and return the mean time
+     *  per call in nanoseconds. */
+    private double iteration(Callable<Object> op) throws Exception {
+        long start = System.nanoTime(), now = start;
+        long calls = 0;
+        while (now - start < _iterationNanos) {
+            Object result = op.call();
+            _sink += result == null ? 0 : System.identityHashCode(result);
+            calls += 1;
+            now = System.nanoTime();
+        }
+        return (double) (now - start) / calls;
+    }
+
+    /** Return the results so far in the layout of JMH's JSON output. */
+    private String toJson() {
+        StringBuilder out = new StringBuilder("[\n");
+        for (int k = 0; k < _results.size(); k += 1) {
+            Result r = _results.get(k);
+            out.append("    {\n")
+                .append("        \"benchmark\" : \"gitlet.Benchmarks.")
+                .append(r.name).append("\",\n")
+                .append("        \"mode\" : \"avgt\",\n")
+                .append("        \"threads\" : 1,\n")
+                .append("        \"forks\" : 0,\n")
+                .append("        \"jvm\" : \"")
+                .append(System.getProperty("java.vm.name")).append("\",\n")
+                .append("        \"jdkVersion\" : \"")
+                .append(System.getProperty("java.version")).append("\",\n")
+                .append("        \"warmupIterations\" : ").append(_warmup)
+                .append(",\n")
+                .append("        \"measurementIterations\" : ")
+                .append(_iterations).append(",\n");
+            if (r.param != null) {
+                out.append("        \"params\" : {\n")
+                    .append("            \"").append(r.param[0])
+                    .append("\" : \"").append(r.param[1]).append("\"\n")
+                    .append("        },\n");
+            }
+            out.append("        \"primaryMetric\" : {\n")
+                .append("            \"score\" : ").append(number(r.score))
+                .append(",\n")
+                .append("            \"scoreError\" : ")
+                .append(number(r.error)).append(",\n")
+                .append("            \"scoreUnit\" : \"us/op\",\n")
+                .append("            \"rawData\" : [\n                [");
+            for (int i = 0; i < r.raw.length; i += 1) {
+                out.append(i == 0 ? "" : ", ").append(number(r.raw[i]));
+            }
+            out.append("]\n            ]\n        }\n    }")
+                .append(k + 1 < _results.size() ? ",\n" : "\n");
+        }
+        return out.append("]\n").toString();
+    }
+
+    /** Return X as a JSON number, or the string "NaN" as JMH writes it. */
+    private static String number(double x) {
+        return Double.isNaN(x) ? "\"NaN\""
+            : String.format(Locale.ROOT, "%.3f", x);
+    }
+
+    /** Return a root commit tracking N files, for the benchmarks that
+     *  need no repository. */
+    private static Commits commitWithFiles(int n) {
+        Commits c = new Commits("files", new Date(0), null);
+        Random random = new Random(n);
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        for (int i = 0; i < n; i += 1) {
+            random.nextBytes(id);
+            c.getFiles().put(RepoGenerator.path(i), Utils.toHex(id));
+        }
+        return c;
+    }
+}
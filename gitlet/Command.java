@@ -1,13 +1,18 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 
 /**
@@ -22,6 +27,21 @@ public class Command {
      */
     private HashMap<String, Consumer<String[]>> commands = new HashMap<>();
 
+    /**
+     * The format of log --oneline.
+     */
+    private static final String ONELINE = "%h %s";
+
+    /**
+     * The prefix of the log option giving a format.
+     */
+    private static final String FORMAT = "--format=";
+
+    /**
+     * The option ordering global-log and find by commit time.
+     */
+    private static final String DATE_ORDER = "--date-order";
+
     /**
      * Constructor for the controller class.
      */
@@ -52,6 +72,16 @@ public class Command {
         commands.put("reset", this::reset);
 
         commands.put("merge", this::merge);
+
+        commands.put("repack", this::repack);
+
+        commands.put("migrate-commits", this::migrateCommits);
+
+        commands.put("commit-graph", this::commitGraph);
+
+        commands.put("reindex", this::reindex);
+
+        commands.put("migrate-objects", this::migrateObjects);
     }
 
     /**
@@ -69,8 +99,6 @@ public class Command {
 
         File gitletDirectory = new File(".gitlet");
 
-        File lgcomms = new File(".gitlet/logcommits");
-
         if (gitletDirectory.isDirectory()) {
             throw new GitletException("A Gitlet version-control "
                 + "system already exists in the current directory.");
@@ -78,29 +106,31 @@ public class Command {
 
         gitletDirectory.mkdir();
 
-        lgcomms.mkdir();
-
         Date init = new Date();
 
         init.setTime(0);
 
         Commits suur = new Commits("initial commit", init, null);
 
-        String hash = Utils.sha1(Utils.serialize(suur));
+        String hash = suur.hash();
 
         suur.saveCommit(hash);
 
+        CommitGraph.add(hash, suur);
+
+        MessageIndex.rebuild();
+
         File brnc = new File(".gitlet/branches/");
 
         brnc.mkdir();
 
         File mstfil = new File(".gitlet/branches/master");
 
-        Utils.writeContents(mstfil, hash);
+        Utils.writeRef(mstfil, hash);
 
 
         File surrfail = new File(".gitlet/head/");
-        Utils.writeContents(surrfail, "master");
+        Utils.writeRef(surrfail, "master");
 
     }
 
@@ -112,18 +142,7 @@ public class Command {
 
     public Commits getHead() {
 
-        File refr = new File(".gitlet/head");
-
-        String naam = Utils.readContentsAsString(refr);
-
-        File brn = new File(".gitlet/branches/" + naam);
-
-        String heesh = Utils.readContentsAsString(brn);
-
-
-        File cmfail = new File(".gitlet/logcommits/" + heesh);
-
-        return Utils.readObject(cmfail, Commits.class);
+        return Commits.getCommit(getHashedHead());
     }
 
     /**
@@ -140,14 +159,7 @@ public class Command {
 
         Commits laysurr = getHead();
 
-        String heesh = getHashedHead();
-
-        laysurr.addToStage(str[2]);
-
-
-        laysurr.saveCommit(heesh);
-
-
+        laysurr.addToStage(str[2], Stage.load());
     }
 
     /**
@@ -175,10 +187,11 @@ public class Command {
 
         Commits nayacom = new Commits(str[2], new Date(), getHashedHead());
 
-        clearStage();
+        String heesh = nayacom.hash();
 
+        nayacom.saveCommit(heesh);
 
-        String heesh = Utils.sha1(Utils.serialize(nayacom));
+        CommitGraph.add(heesh, nayacom);
 
         File surrfail = new File(".gitlet/head");
 
@@ -186,9 +199,11 @@ public class Command {
 
         File brn = new File(".gitlet/branches/" + naam);
 
-        Utils.writeContents(brn, heesh);
+        MessageIndex.add(heesh, str[2]);
 
-        nayacom.saveCommit(heesh);
+        Utils.writeRef(brn, heesh);
+
+        clearStage();
 
 
     }
@@ -206,102 +221,158 @@ public class Command {
         }
         Commits getsuur = getHead();
 
-        String heesh = getHashedHead();
-
-        getsuur.removeCommit(str[2]);
-
-        getsuur.saveCommit(heesh);
-
+        getsuur.removeCommit(str[2], Stage.load());
     }
 
     /**
-     * print the logs of the commits.
+     * print the logs of the commits, following first parents from the
+     * head, each read from the one before.  Takes the options -n COUNT,
+     * to stop after COUNT commits without reading the others, and
+     * either --oneline, to print each commit as its abbreviated id and
+     * subject, or --format=FORMAT, to print each as FORMAT expanded by
+     * Commits.format.
      * @param str takes in str.
      */
 
     public void log(String... str) {
-
-        if (str.length != 2) {
-
-            throw new GitletException("Incorrect operands.");
-
+        long count = Long.MAX_VALUE;
+        String format = null;
+        for (int i = 2; i < str.length; i += 1) {
+            if (str[i].equals("-n") && i + 1 < str.length) {
+                i += 1;
+                try {
+                    count = Long.parseLong(str[i]);
+                } catch (NumberFormatException excp) {
+                    throw new GitletException("Incorrect operands.");
+                }
+                if (count < 0) {
+                    throw new GitletException("Incorrect operands.");
+                }
+            } else if (str[i].equals("--oneline") && format == null) {
+                format = ONELINE;
+            } else if (str[i].startsWith(FORMAT) && format == null) {
+                format = str[i].substring(FORMAT.length());
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
         }
 
         String headHash = getHashedHead();
 
-        Commits hcoomm = Commits.getCommit(headHash);
+        PrintStream out = bufferedOutput();
 
-        while (headHash != null) {
+        try {
+            for (; headHash != null && count > 0; count -= 1) {
 
-            System.out.println("===");
+                Commits commit = Commits.getCommit(headHash);
 
-            hcoomm.log(headHash);
+                printLog(out, headHash, commit, format);
 
-            System.out.println();
-
-            headHash = hcoomm.parentRef();
-
-            if (headHash != null) {
-
-                hcoomm = Commits.getCommit(headHash);
+                headHash = commit.getParent();
             }
+        } finally {
+            out.flush();
+        }
+    }
 
+    /**
+     * Prints COMMIT, whose id is HASH, to OUT as log does: in FORMAT, or
+     * in full if FORMAT is null.
+     * @param out where it goes
+     * @param hash the id
+     * @param commit the commit
+     * @param format the format, or null
+     */
+
+    private void printLog(PrintStream out, String hash, Commits commit,
+                          String format) {
+        if (format != null) {
+            out.println(commit.format(hash, format));
+            return;
         }
+        out.println("===");
+        commit.log(hash, out);
+        out.println();
+    }
 
+    /**
+     * A stream writing to the standard output through a buffer, for
+     * commands that print many lines; it must be flushed when done.
+     * @return the stream
+     */
+
+    private static PrintStream bufferedOutput() {
+        return new PrintStream(
+            new BufferedOutputStream(System.out, Utils.BUFFER_SIZE), false);
     }
 
     /**
-     * Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter.
+     * Like log, except displays information about all commits ever made,
+     * in order of id, or newest first with --date-order.  Commits are
+     * read in parallel, and in id order are printed as they are read.
      * @param str takes in sting.
      */
 
     public void globalLog(String... str) {
 
-        if (str.length != 2) {
+        if (str.length != 2
+            && !(str.length == 3 && str[2].equals(DATE_ORDER))) {
 
             throw new GitletException("Incorrect operands.");
         }
-        List<String> hurrcomms = Utils.plainFilenamesIn(".gitlet/logcommits");
-
-        for (String commms : hurrcomms) {
+        List<String> hurrcomms = ObjectStore.commitIds();
 
-            System.out.println("===");
-
-            Commits.getCommit(commms).log(commms);
-
-            System.out.println();
+        PrintStream out = bufferedOutput();
 
+        try {
+            Commits.scan(hurrcomms, str.length == 3,
+                (commms, commit) -> printLog(out, commms, commit, null));
+        } finally {
+            out.flush();
         }
 
     }
 
     /**
      * Prints out the ids of all commits that have
-     * the given commit message, one per line.
+     * the given commit message, one per line.  With --words, prints
+     * those whose message contains every word given, ignoring case.
+     * The ids come in order, or newest first if the first option is
+     * --date-order.
      * @param str takes in a string
      */
 
     public void find(String... str) {
-        if (str.length == 2) {
+        boolean byTime = str.length > 2 && str[2].equals(DATE_ORDER);
+        int first = byTime ? 3 : 2;
+        if (str.length == first) {
             throw new GitletException(
                 "Please enter a commit message.");
         }
-        if (str.length != 3) {
+        Set<String> found;
+        if (str.length == first + 1) {
+            found = MessageIndex.load().exact(str[first]);
+        } else if (str.length == first + 2 && str[first].equals("--words")) {
+            found = MessageIndex.load().words(str[first + 1]);
+        } else {
             throw new GitletException("Incorrect operands.");
         }
-        List<String> allCommits = Utils.plainFilenamesIn(".gitlet/logcommits");
-        boolean milla = false;
-        for (String coms : allCommits) {
-            String msgs = Commits.getCommit(coms).logMessage();
-            if (str[2].equals(msgs)) {
-                System.out.println(coms);
-                milla = true;
-            }
-        }
-        if (!milla) {
+        if (found.isEmpty()) {
             throw new GitletException("Found no commit with that message.");
         }
+        PrintStream out = bufferedOutput();
+        try {
+            if (byTime) {
+                Commits.scan(new ArrayList<>(found), true,
+                    (coms, commit) -> out.println(coms));
+            } else {
+                for (String coms : found) {
+                    out.println(coms);
+                }
+            }
+        } finally {
+            out.flush();
+        }
     }
     /**
      * gives you the state of the current.
@@ -314,40 +385,49 @@ public class Command {
         }
         List<String> brs = Utils.plainFilenamesIn(".gitlet/branches");
         Collections.sort(brs); System.out.println("=== Branches ===");
+        String name = Utils.readContentsAsString(new File(".gitlet/head"));
         for (String brn : brs) {
-            File rf = new File(".gitlet/head");
-            String name = Utils.readContentsAsString(rf);
             if (brn.equals(name)) {
                 System.out.println("*" + brn);
             } else {
                 System.out.println(brn);
             }
         }
-        System.out.println(); Set<String> si = getHead().getStage().keySet();
+        Stage stage = Stage.load();
+        System.out.println(); Set<String> si = stage.getAdded().keySet();
         List<String> srt = new ArrayList<>(si);
         Collections.sort(srt); System.out.println("=== Staged Files ===");
         for (String stageNames : srt) {
             System.out.println(stageNames);
         }
         System.out.println();
-        List<String> uf = getHead().getUntrackedFiles();
-        Collections.sort(uf); System.out.println("=== Removed Files ===");
+        Set<String> uf = stage.getRemoved();
+        System.out.println("=== Removed Files ===");
         for (String hutt : uf) {
             System.out.println(hutt);
         }
         System.out.println();
-        Set<String> fset = getHead().getFiles().keySet();
+        Map<String, String> headFiles = getHead().getFiles();
+        Set<String> fset = headFiles.keySet();
         List<String> sofils = new ArrayList<>(fset); Collections.sort(sofils);
         System.out.println("=== Modifications Not Staged For Commit ===");
         List<String> hh = new ArrayList<>();
+        StatCache cache = StatCache.load();
+        Set<File> toHash = new LinkedHashSet<>();
+        for (String na : srt) {
+            toHash.add(new File(na));
+        }
+        for (String file : sofils) {
+            toHash.add(new File(file));
+        }
+        Map<String, String> hashes = cache.hashAll(toHash);
         for (String na : srt) {
             File xf = new File(na);
             if (!xf.exists()) {
                 hh.add(na + " (deleted)");
             } else {
-                String rf = Utils.readContentsAsString(xf);
-                String h1 = Utils.sha1(rf);
-                if (!h1.equals(getHead().getStage().get(na))) {
+                String h1 = hashes.get(na);
+                if (!h1.equals(stage.getAdded().get(na))) {
                     hh.add(na + " (modified)");
                 }
             }
@@ -358,19 +438,19 @@ public class Command {
                 hh.add(file + " (deleted)");
             }
             if (rfi.exists()) {
-                String falcont = Utils.readContentsAsString(rfi);
-                String hash = Utils.sha1(falcont);
+                String hash = hashes.get(file);
                 if (!si.contains(file)
-                    && !hash.equals(getHead().getFiles().get(file))) {
+                    && !hash.equals(headFiles.get(file))) {
                     hh.add(file + " (modified)");
                 }
             }
         }
+        cache.save();
         Collections.sort(hh);
         for (String s : hh) {
             System.out.println(s);
         }
-        System.out.println(); List<String> nd = Utils.plainFilenamesIn(".");
+        System.out.println(); List<String> nd = Utils.workingFiles();
         System.out.println("=== Untracked Files ==="); Collections.sort(nd);
         for (String n1 : nd) {
             if (!si.contains(n1) && !fset.contains(n1)) {
@@ -395,40 +475,25 @@ public class Command {
 
             File fnaam = new File(str[3]);
 
-            if (!surr.getFiles().containsKey(str[3])) {
+            String hesh = surr.getFile(str[3]);
+
+            if (hesh == null) {
                 throw new
                     GitletException("File does not exist in that commit.");
             }
 
-            String hesh = surr.getFiles().get(str[3]);
-
-            File nayeefaile = new File(".gitlet/" + hesh);
-
-            String newContents = Utils.readContentsAsString(nayeefaile);
-
-            Utils.writeContents(fnaam, newContents);
+            ObjectStore.checkout(hesh, fnaam);
 
         } else if (str.length == 5 && str[3].equals("--")) {
-            String comid = str[2];
-            String firstsaat = comid.substring(0, 7);
-            List<String> allCommits
-                = Utils.plainFilenamesIn(".gitlet/logcommits");
-            String headac = "";
-            for (String commitIds : allCommits) {
-                if (commitIds.substring(0, 7).equals(firstsaat)) {
-                    headac = commitIds;
-                }
-            }
+            String headac = ObjectStore.resolveCommit(str[2]);
             Commits layc = Commits.getCommit(headac);
             File naamoffile = new File(str[4]);
-            if (!layc.getFiles().containsKey(str[4])) {
+            String heesh = layc.getFile(str[4]);
+            if (heesh == null) {
                 throw new GitletException(
                     "File does not exist in that commit.");
             }
-            String heesh = layc.getFiles().get(str[4]);
-            File nayefaill = new File(".gitlet/" + heesh);
-            String nayacon = Utils.readContentsAsString(nayefaill);
-            Utils.writeContents(naamoffile, nayacon);
+            ObjectStore.checkout(heesh, naamoffile);
 
 
         } else if (str.length == 3) {
@@ -463,47 +528,15 @@ public class Command {
         }
         Commits head = getHead();
         Commits newCommit = Commits.getCommit(headName);
-        List<String> failannn = Utils.plainFilenamesIn(".");
+        untCheck(newCommit);
 
-        for (String s : failannn) {
+        checkoutTree(head.getFiles(), newCommit.getFiles());
 
-            File nayeefail = new File(s);
-
-            String cont = Utils.readContentsAsString(nayeefail);
-
-            String heesh = Utils.sha1(cont);
-
-            if (!head.getFiles().containsKey(s)) {
-                if (newCommit.getFiles().containsKey(s)
-                    && !heesh.equals(newCommit.getFiles().get(s))) {
-                    throw new
-                        GitletException("There is an untracked file"
-                        + " in the way; delete it or add it first.");
-                }
-            }
-        }
-
-        for (String s : head.getFiles().keySet()) {
-
-            Utils.restrictedDelete(s);
-        }
-        for (String ca : newCommit.getFiles().keySet()) {
-            String heesh = newCommit.getFiles().get(ca);
-            File nayeefail = new File(".gitlet/" + heesh);
-
-            File failan = new File(ca);
-            String content = Utils.readContentsAsString(nayeefail);
-
-            Utils.writeContents(failan, content);
-        }
-
-        newCommit.getStage().clear();
-
-        newCommit.saveCommit(headName);
+        clearStage();
 
         File head2 = new File(".gitlet/head");
 
-        Utils.writeContents(head2, str[2]);
+        Utils.writeRef(head2, str[2]);
     }
 
 
@@ -528,7 +561,7 @@ public class Command {
         }
         String heesh = getHashedHead();
         File mstfile = new File(".gitlet/branches/" + str[2]);
-        Utils.writeContents(mstfile, heesh);
+        Utils.writeRef(mstfile, heesh);
     }
 
     /**
@@ -567,73 +600,83 @@ public class Command {
     }
 
     /**
-     * Checks out all the files tracked by the given commit.
+     * Checks out all the files tracked by the given commit, removing
+     * tracked files it does not have, and moves the current branch to
+     * it.  Only files that differ are written.  With --mixed, moves the
+     * branch and clears the staging area without touching any working
+     * file; with --soft, moves the branch and stages whatever differs
+     * from what would have been committed before, so that committing
+     * again restores it.  --hard is the default.
      * @param str takes in a string
      */
 
 
     public void reset(String... str) {
-        if (str.length != 3) {
+        String mode = "--hard";
+        if (str.length == 4) {
+            mode = str[2];
+        }
+        if (str.length < 3 || str.length > 4
+            || !List.of("--hard", "--mixed", "--soft").contains(mode)) {
 
             throw new GitletException("Incorrect operands.");
         }
 
-        Commits laycomm = Commits.getCommit(str[2]);
-
-        Commits surrdoh = getHead();
-
-        List<String> failann = Utils.plainFilenamesIn(".");
-
-
-        for (String ayee : failann) {
-
-            File nayefailan = new File(ayee);
-
-            String samaan = Utils.readContentsAsString(nayefailan);
-
-            String heesh = Utils.sha1(samaan);
-
-            if (
-                !surrdoh.getFiles().containsKey(ayee)) {
-
-                if (laycomm.getFiles().containsKey(ayee)
-                    && !heesh.equals(laycomm.getFiles().get(ayee))) {
-
-                    throw new
-                        GitletException("There is an untracked file"
-                        + " in the way; delete it or add it first.");
-                }
-            }
-        }
+        String target = ObjectStore.resolveCommit(str[str.length - 1]);
 
-        for (
-            String failan : laycomm.getFiles().keySet()) {
+        Commits laycomm = Commits.getCommit(target);
 
-            String[] inp = {"git", "checkout", str[2], "--", failan};
+        Commits head = getHead();
 
-            checkout(inp);
+        if (mode.equals("--hard")) {
+            untCheck(laycomm);
+            checkoutTree(head.getFiles(), laycomm.getFiles());
+            clearStage();
+        } else if (mode.equals("--mixed")) {
+            clearStage();
+        } else {
+            restage(head, laycomm);
         }
 
-        laycomm.getStage().clear();
-
-        laycomm.getUntrackedFiles().clear();
-
-        laycomm.saveCommit(str[2]);
-
         File surrf = new File(".gitlet/head");
 
         String surrbr = Utils.readContentsAsString(surrf);
 
         File bfile = new File(".gitlet/branches/" + surrbr);
 
-        Utils.writeContents(bfile, str[2]);
+        Utils.writeRef(bfile, target);
 
 
     }
 
+    /**
+     * Replaces the staging area, which holds changes to HEAD, with one
+     * holding the same files as changes to TARGET.
+     * @param head the current commit
+     * @param target the commit about to become current
+     */
+    private void restage(Commits head, Commits target) {
+        Stage stage = Stage.load();
+        HashMap<String, String> index = new HashMap<>(head.getFiles());
+        index.keySet().removeAll(stage.getRemoved());
+        index.putAll(stage.getAdded());
+        clearStage();
+        Stage fresh = Stage.load();
+        for (Map.Entry<String, String> e : index.entrySet()) {
+            if (!e.getValue().equals(target.getFiles().get(e.getKey()))) {
+                fresh.add(e.getKey(), e.getValue());
+            }
+        }
+        for (String name : target.getFiles().keySet()) {
+            if (!index.containsKey(name)) {
+                fresh.remove(name);
+            }
+        }
+    }
 
     /**
-     * Merges files from the given branch into the current branch.
+     * Merges files from the given branch into the current branch.  A
+     * name that is not a branch is taken as a commit id or prefix.
      * @param str takes in a string
      */
     public void merge(String... str) {
@@ -642,19 +685,22 @@ public class Command {
         }
 
         List<String> branches = Utils.plainFilenamesIn(".gitlet/branches");
-        if (!branches.contains(str[2])) {
+        String argBranchName = str[2];
+        String argHash;
+        if (branches.contains(argBranchName)) {
+            File argFile = new File(".gitlet/branches/" + argBranchName);
+            argHash = Utils.readContentsAsString(argFile);
+        } else if (!ObjectStore.commitsWithPrefix(argBranchName, 1)
+                   .isEmpty()) {
+            argHash = ObjectStore.resolveCommit(argBranchName);
+        } else {
             throw new GitletException("A branch with "
                 + "that name does not exist.");
         }
-
-        String argBranchName = str[2];
-
-        File argFile = new File(".gitlet/branches/" + argBranchName);
-        String argHash = Utils.readContentsAsString(argFile);
         Commits acom = Commits.getCommit(argHash);
 
         Commits head = getHead();
-        if (!head.getStage().isEmpty() || !head.getUntrackedFiles().isEmpty()) {
+        if (!Stage.load().isEmpty()) {
             throw new GitletException("You have uncommitted changes.");
         }
 
@@ -662,23 +708,23 @@ public class Command {
 
         File headFile = new File(".gitlet/head");
         String headBranchName = Utils.readContentsAsString(headFile);
-        File headBranch = new File(".gitlet/branches/" + headBranchName);
 
         if (headBranchName.equals(argBranchName)) {
             throw new GitletException("Cannot merge a branch with itself.");
         }
-        createtheMerge(acom);
+        untCheck(acom);
 
         String headHash = getHashedHead();
         Commits headCommit = Commits.getCommit(headHash);
 
-        createtheMerge(argHash);
+        woheeSpCheck(argHash);
 
-        Commits split = getSplit(argHash);
-        if (getHashedHead().equals(Utils.sha1(Utils.serialize(split)))) {
-            Utils.writeContents(headBranch, headHash);
+        String splitHash = CommitGraph.load().mergeBase(headHash, argHash);
+        if (headHash.equals(splitHash)) {
+            reset("git", "reset", argHash);
             throw new GitletException("Current branch fast-forwarded.");
         }
+        Commits split = Commits.getCommit(splitHash);
 
         for (String file : split.getFiles().keySet()) {
             if (acom.getFiles().keySet().contains(file)
@@ -691,7 +737,7 @@ public class Command {
                         checkout(inp);
                         add("git", "add", file);
                     } else {
-                        createtheMerge(file, acom, headCommit);
+                        mergeConflict(file, acom, headCommit);
                         foundConflict = true;
                     }
                 }
@@ -700,7 +746,7 @@ public class Command {
                 && !headCommit.getFiles().keySet().contains(file)) {
                 if (!acom
                     .getFiles().get(file).equals(split.getFiles().get(file))) {
-                    createtheMerge(file, acom, headCommit);
+                    mergeConflict(file, acom, headCommit);
                     foundConflict = true;
                 }
             }
@@ -708,7 +754,7 @@ public class Command {
                 && headCommit.getFiles().keySet().contains(file)) {
                 if (!headCommit
                     .getFiles().get(file).equals(split.getFiles().get(file))) {
-                    createtheMerge(file, acom, headCommit);
+                    mergeConflict(file, acom, headCommit);
                     foundConflict = true;
                 }
             }
@@ -732,7 +778,7 @@ public class Command {
                 && !split.getFiles().keySet().contains(file)) {
                 if (!acom.getFiles().get(file)
                     .equals(headCommit.getFiles().get(file))) {
-                    createtheMerge(file, acom, headCommit);
+                    mergeConflict(file, acom, headCommit);
                     foundConflict = true;
                 }
 
@@ -744,14 +790,17 @@ public class Command {
 
         Commits newCommit =
             new Commits(message, new Date(), getHashedHead(), argHash);
-        String hash = Utils.sha1(Utils.serialize(newCommit));
+        String hash = newCommit.hash();
 
         File h = new File(".gitlet/head");
         String name = Utils.readContentsAsString(h);
         File branch = new File(".gitlet/branches/" + name);
 
-        Utils.writeContents(branch, hash);
         newCommit.saveCommit(hash);
+        CommitGraph.add(hash, newCommit);
+        MessageIndex.add(hash, message);
+        Utils.writeRef(branch, hash);
+        clearStage();
 
         if (foundConflict) {
             System.out.println("Encountered a merge conflict.");
@@ -772,69 +821,11 @@ public class Command {
      */
     public void woheeSpCheck(String commitHash) {
 
-        String heesh = getHashedHead();
-
-        Commits comm = Commits.getCommit(heesh);
-
-        while (heesh != null) {
-
-            if (
-                commitHash.equals(heesh)) {
-
-                throw new GitletException(
-                    "Given branch is an "
-                    + "ancestor of the current branch.");
-            }
-            heesh = comm.parentRef();
-
-            if (
-                heesh != null) {
-                comm = Commits.getCommit(heesh);
-            }
-        }
-    }
-
-    /**
-     * grabs the split.
-     * @param commitHash commits the hash.
-     * @return otcom.
-     */
-    public Commits getSplit(String commitHash) {
-        HashSet<String> purana = new HashSet<>();
-
-        String othas = commitHash;
-
-        Commits otcom = Commits.getCommit(othas);
-
-        String heash = getHashedHead();
-
-        Commits homm = Commits.getCommit(heash);
-
-        while (heash != null) {
-
-            heash = homm.parentRef();
-
-            purana.add(heash);
-
-            if (heash != null) {
-
-                homm = Commits.getCommit(heash);
-            }
-        }
-        while (
-            othas != null) {
-            if (
-                purana.contains(othas)) {
-
-                return otcom;
-            }
-            othas = otcom.parentRef();
-            if (othas != null) {
-
-                otcom = Commits.getCommit(othas);
-            }
+        if (CommitGraph.load().isAncestor(commitHash, getHashedHead())) {
+            throw new GitletException(
+                "Given branch is an "
+                + "ancestor of the current branch.");
         }
-        return otcom;
     }
 
     /**
@@ -866,27 +857,61 @@ public class Command {
     public void untCheck(Commits c) {
         Commits headhas = getHead();
 
-        List<String> failan = Utils.plainFilenamesIn(".");
+        List<String> failan = Utils.workingFiles();
 
-        for (String s : failan) {
+        StatCache cache = StatCache.load();
 
-            File nayeefail = new File(s);
-
-            String cns = Utils.readContentsAsString(nayeefail);
+        for (String s : failan) {
 
-            String surrhash = Utils.sha1(cns);
+            if (!headhas.getFiles().containsKey(s)
+                && c.getFiles().containsKey(s)) {
 
-            if (!headhas.getFiles().containsKey(s)) {
+                String surrhash = cache.hash(new File(s));
 
-                if (
-                    c.getFiles().containsKey(s)
-                    && !surrhash.equals(c.getFiles().get(s))) {
+                if (!c.getFiles().get(s).equals(surrhash)) {
+                    cache.save();
                     throw new GitletException("There is "
                         + "an untracked file in the way; "
                         + "delete it or add it first.");
                 }
             }
         }
+        cache.save();
+    }
+
+    /**
+     * Makes the working files match the commit tracking TO, when they
+     * now hold the commit tracking FROM.  Files only in FROM are deleted.
+     * A file tracked by both with the same blob is left alone if its
+     * contents still match, which the stat cache usually answers
+     * without reading it; every other file of TO is written.  The
+     * writes run in parallel, a bounded number at a time.
+     * @param from blob ids of the files now tracked, by name
+     * @param to blob ids of the files to check out, by name
+     */
+    public void checkoutTree(Map<String, String> from,
+                             Map<String, String> to) {
+        List<File> same = new ArrayList<>();
+        for (Map.Entry<String, String> e : from.entrySet()) {
+            if (!to.containsKey(e.getKey())) {
+                Utils.deleteWorkingFile(e.getKey());
+            } else if (e.getValue().equals(to.get(e.getKey()))) {
+                same.add(new File(e.getKey()));
+            }
+        }
+        StatCache cache = StatCache.load();
+        Map<String, String> current = cache.hashAll(same);
+        cache.save();
+        List<Callable<Void>> writes = new ArrayList<>();
+        for (Map.Entry<String, String> e : to.entrySet()) {
+            if (!e.getValue().equals(current.get(e.getKey()))) {
+                writes.add(() -> {
+                    ObjectStore.checkout(e.getValue(), new File(e.getKey()));
+                    return null;
+                });
+            }
+        }
+        Utils.runAll(writes);
     }
 
     /**
@@ -895,13 +920,7 @@ public class Command {
 
     public void clearStage() {
 
-        Commits headhash = getHead();
-
-        headhash.getStage().clear();
-
-        headhash.getUntrackedFiles().clear();
-
-        headhash.saveCommit(getHashedHead());
+        Stage.clear();
     }
     /**
      * Clears up the stage.
@@ -911,27 +930,87 @@ public class Command {
      */
     public void mergeConflict (String file, Commits argCommit,
                                Commits headCommit) {
-        File cu = new File(".gitlet/" + headCommit.getFiles().get(file));
-        File argument = new File(".gitlet/" + argCommit.getFiles().get(file));
-        if (!cu.exists()) {
-            Utils.writeContents(cu, "");
-        }
-        if (!argument.exists()) {
-            Utils.writeContents(argument, "");
-        }
+        String cu = headCommit.getFiles().get(file);
+        String argument = argCommit.getFiles().get(file);
         File act = new File(file);
-        String cCont = Utils.readContentsAsString(cu);
-        String argCont = Utils.readContentsAsString(argument);
+        byte[] cCont = cu == null ? new byte[0] : ObjectStore.readBlob(cu);
+        byte[] argCont = argument == null ? new byte[0]
+            : ObjectStore.readBlob(argument);
         Utils.writeContents(act,
             "<<<<<<< HEAD\n", cCont, "=======\n", argCont, ">>>>>>>\n");
         add("git", "add", file);
     }
     /**
-     * parse it through the given the command blood.
+     * Packs every blob and commit into a single delta-compressed
+     * packfile, removes the loose copies, and rewrites the commit graph.
+     * @param str takes in a string
+     */
+    public void repack(String... str) {
+        if (str.length != 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        Pack.repack();
+        CommitGraph.write();
+    }
+
+    /**
+     * Writes the commit graph, recording the parents, generation and
+     * time of every commit.
+     * @param str takes in a string
+     */
+    public void commitGraph(String... str) {
+        if (str.length != 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        CommitGraph.write();
+    }
+
+    /**
+     * Rebuilds the message index used by find from every commit.
+     * @param str takes in a string
+     */
+    public void reindex(String... str) {
+        if (str.length != 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        MessageIndex.rebuild();
+    }
+
+    /**
+     * Moves loose objects stored flat in .gitlet and .gitlet/logcommits
+     * into the fan-out object directories.
+     * @param str takes in a string
+     */
+    public void migrateObjects(String... str) {
+        if (str.length != 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        ObjectStore.migrate();
+    }
+
+    /**
+     * Rewrites commits stored with Java serialization in the binary
+     * commit format.
+     * @param str takes in a string
+     */
+    public void migrateCommits(String... str) {
+        if (str.length != 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        Commits.migrate();
+    }
+
+    /**
+     * parse it through the given the command blood.  A first argument
+     * --trace traces the command, as described in Trace.
      * @param str returns str
      */
 
     public void parseLine(String... str) {
+        boolean trace = str.length > 0 && str[0].equals(Trace.FLAG);
+        if (trace) {
+            str = Arrays.copyOfRange(str, 1, str.length);
+        }
         if (
             str.length < 1) {
             throw new GitletException(
@@ -953,6 +1032,20 @@ public class Command {
 
         System.arraycopy(str, 0, newInputList, 1, str.length);
 
-        commands.get(newInputList[1]).accept(newInputList);
+        long start = Trace.begin(trace);
+        Events.CommandEvent event = new Events.CommandEvent();
+        event.begin();
+        try {
+            commands.get(newInputList[1]).accept(newInputList);
+        } finally {
+            Utils.sync();
+            Trace.finish(str[0], start);
+            if (event.shouldCommit()) {
+                event.command = str[0];
+                event.operands = String.join(" ",
+                    Arrays.copyOfRange(str, 1, str.length));
+                event.commit();
+            }
+        }
     }
 }
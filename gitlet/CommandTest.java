@@ -11,7 +11,19 @@ import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import static org.junit.Assert.*;
 
@@ -75,9 +87,9 @@ public class CommandTest {
         ta.init(gitInit);
         ta.add(gitAdd);
 
-        Commits head = ta.getHead();
+        Stage stage = Stage.load();
 
-        assertEquals(true, head.getStage().containsKey(filename));
+        assertEquals(true, stage.getAdded().containsKey(filename));
 
         File cmfl = new File(filename);
 
@@ -85,7 +97,7 @@ public class CommandTest {
 
         String heesh = Utils.sha1(cts);
 
-        assertEquals(true, head.getStage().containsKey(filename));
+        assertEquals(heesh, stage.getAdded().get(filename));
     }
 
     @Test
@@ -111,8 +123,7 @@ public class CommandTest {
 
         testRemove.remove(gitRm);
 
-        Commits surr = testRemove.getHead();
-        assertEquals(true, surr.getStage().isEmpty());
+        assertEquals(true, Stage.load().isEmpty());
 
 
         testRemove.add(gitAdd);
@@ -122,9 +133,11 @@ public class CommandTest {
         testRemove.remove(gitRm);
 
 
-        surr = testRemove.getHead();
+        Commits surr = testRemove.getHead();
+
+        assertEquals(true, Stage.load().getAdded().isEmpty());
 
-        assertEquals(true, surr.getStage().isEmpty());
+        assertEquals(true, Stage.load().getRemoved().contains(filename));
 
         assertEquals(true, !surr.getFiles().isEmpty());
         File existsFile = new File(filename);
@@ -147,10 +160,37 @@ public class CommandTest {
         testFind.commit(gitCommit2);
         testFind.find(gitFind);
         Commits head = testFind.getHead();
-        String hash = Utils.sha1(Utils.serialize(head));
+        String hash = head.hash();
         assertEquals(hash + "\n", output.toString());
     }
 
+    @Test
+    public void findWords() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        String first = c.getHashedHead();
+        c.remove(gitRm);
+        c.commit(gitCommit2);
+        String second = c.getHashedHead();
+
+        MessageIndex.INDEX_FILE.delete();
+        c.parseLine("find", "--words", "THIS is");
+        assertEquals(new TreeSet<>(List.of(first, second)).stream()
+                     .map(x -> x + "\n").reduce("", String::concat),
+                     output.toString());
+        output.reset();
+        c.parseLine("find", "--words", "test");
+        assertEquals(first + "\n", output.toString());
+        output.reset();
+        c.parseLine("find", "--words", "test2");
+        assertEquals(second + "\n", output.toString());
+        assertTrue(MessageIndex.load().words("initial test").isEmpty());
+        assertEquals(Set.of(first),
+                     MessageIndex.load().exact("this is a test"));
+    }
+
     @Test
     public void merge() throws Exception {
         Command c = new Command();
@@ -270,5 +310,832 @@ public class CommandTest {
 
     }
 
+    @Test
+    public void repack() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        String first = c.getHashedHead();
+
+        File tf = new File(filename);
+        Utils.writeContents(tf, "hello there, again");
+        c.add(gitAdd);
+        c.commit(gitCommit2);
+
+        c.parseLine("repack");
+
+        assertEquals(true, ObjectStore.looseBlobIds().isEmpty());
+        assertEquals(true, ObjectStore.looseCommitIds().isEmpty());
+        assertEquals(3, ObjectStore.commitIds().size());
+
+        c.parseLine("checkout", first, "--", filename);
+        assertEquals("hello there", Utils.readContentsAsString(tf));
+
+        c.parseLine("checkout", "--", filename);
+        assertEquals("hello there, again", Utils.readContentsAsString(tf));
+    }
+
+    /** repack installs each new pack under a new name, removes the old
+     *  one, and streams objects above the delta limit, from loose files
+     *  and then from the previous pack. */
+    @Test
+    public void repackLargeObjects() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        File big = new File("big.txt");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() <= 3 * Pack.DELTA_LIMIT / 2; i += 1) {
+            text.append("line ").append(i * 7919 % 100003).append('\n');
+        }
+        Utils.writeContents(big, text.toString());
+        c.parseLine("add", "big.txt");
+        c.parseLine("add", filename);
+        c.parseLine("commit", "big");
+        c.parseLine("repack");
+        assertEquals("pack-1",
+                     Utils.readContentsAsString(Pack.CURRENT_FILE));
+
+        Utils.writeContents(new File(filename), "hello there, again");
+        c.parseLine("add", filename);
+        c.parseLine("commit", "small");
+        c.parseLine("repack");
+        Set<String> files = new TreeSet<>(
+            Utils.plainFilenamesIn(Pack.PACK_DIR));
+        assertEquals(Set.of("current", "pack-2.idx", "pack-2.pack"), files);
+
+        big.delete();
+        c.parseLine("checkout", "--", "big.txt");
+        assertEquals(text.toString(), Utils.readContentsAsString(big));
+        big.delete();
+    }
+
+    @Test
+    public void looseObjects() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.add(gitAdd);
+        String hash = Utils.sha1("hello there");
+
+        byte[] stored = Utils.readContents(ObjectStore.looseBlobFile(hash));
+        assertEquals(0x78, stored[0]);
+        assertEquals("hello there",
+            new String(ObjectStore.readBlob(hash), "UTF-8"));
+
+        Utils.writeContents(ObjectStore.looseBlobFile(hash), "hello there");
+        assertEquals("hello there",
+            new String(ObjectStore.readBlob(hash), "UTF-8"));
+    }
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        byte[] contents = new byte[3 * Utils.BUFFER_SIZE + 17];
+        for (int i = 0; i < contents.length; i += 1) {
+            contents[i] = (byte) (i * 7919);
+        }
+        File tf = new File(filename);
+        Utils.writeContents(tf, contents);
+        c.add(gitAdd);
+        c.commit(gitCommit);
+
+        Utils.writeContents(tf, "overwritten");
+        c.parseLine("checkout", "--", filename);
+        assertArrayEquals(contents, Utils.readContents(tf));
+        assertEquals(Utils.sha1(contents), Utils.sha1(tf));
+    }
+
+    @Test
+    public void statCache() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        File tf = new File(filename);
+        tf.setLastModified(System.currentTimeMillis() - 60000);
+
+        StatCache cache = StatCache.load();
+        assertEquals(Utils.sha1("hello there"), cache.hash(tf));
+        cache.save();
+        assertEquals(true, StatCache.INDEX_FILE.exists());
+
+        cache = StatCache.load();
+        assertEquals(Utils.sha1("hello there"), cache.hash(tf));
+        Utils.writeContents(tf, "hello there, again");
+        assertEquals(Utils.sha1("hello there, again"), cache.hash(tf));
+    }
+
+    @Test
+    public void commitsImmutable() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        String head = c.getHashedHead();
+        byte[] stored = ObjectStore.readCommit(head);
+
+        Utils.writeContents(new File(filename), "changed");
+        c.add(gitAdd);
+        c.remove(gitRm);
+
+        assertArrayEquals(stored, ObjectStore.readCommit(head));
+        assertEquals(head, Utils.sha1(stored));
+    }
+
+    @Test
+    public void commitGraph() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        String root = c.getHashedHead();
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        String first = c.getHashedHead();
+        c.parseLine("commit-graph");
+
+        Utils.writeContents(new File(filename), "hello there, again");
+        c.add(gitAdd);
+        c.commit(gitCommit2);
+        String second = c.getHashedHead();
+
+        CommitGraph graph = CommitGraph.load();
+        assertEquals(1, graph.generation(root));
+        assertEquals(null, graph.firstParent(root));
+        assertEquals(root, graph.firstParent(first));
+        assertEquals(first, graph.firstParent(second));
+        assertEquals(3, graph.generation(second));
+        assertEquals(c.getHead().getTimeCommit().getTime(),
+                     graph.time(second));
+    }
+
+    /** Commits and merges are added to the graph's tail as they are
+     *  made, so walking them reads no commits. */
+    @Test
+    public void commitGraphTail() throws Exception {
+        Command c = new Command();
+        c.parseLine("init");
+        String root = c.getHashedHead();
+        c.parseLine("branch", "side");
+        c.parseLine("add", filename);
+        c.parseLine("commit", "master one");
+        c.parseLine("checkout", "side");
+        Utils.writeContents(new File("s.txt"), "side");
+        c.parseLine("add", "s.txt");
+        c.parseLine("commit", "side one");
+        String side = c.getHashedHead();
+        c.parseLine("checkout", "master");
+        c.parseLine("merge", "side");
+        String merged = c.getHashedHead();
+        assertTrue(CommitGraph.TAIL_FILE.isFile());
+        assertFalse(CommitGraph.GRAPH_FILE.exists());
+
+        CommitCache cache = CommitCache.get();
+        long reads = cache.hits() + cache.misses();
+        CommitGraph graph = CommitGraph.load();
+        assertEquals(3, graph.generation(merged));
+        assertEquals(side, graph.parents(merged)[1]);
+        assertEquals(root, graph.firstParent(graph.firstParent(merged)));
+        assertEquals(side, graph.mergeBase(side, merged));
+        assertEquals(reads, cache.hits() + cache.misses());
+
+        c.parseLine("commit-graph");
+        assertFalse(CommitGraph.TAIL_FILE.exists());
+        graph = CommitGraph.load();
+        assertEquals(3, graph.generation(merged));
+        assertEquals(side, graph.mergeBase(side, merged));
+        assertEquals(reads, cache.hits() + cache.misses());
+        new File("s.txt").delete();
+    }
+
+    @Test
+    public void mergeBaseThroughSecondParent() throws Exception {
+        Command c = new Command();
+        c.parseLine("init");
+        c.parseLine("branch", "side");
+        c.parseLine("checkout", "side");
+        Utils.writeContents(new File("s.txt"), "side");
+        c.parseLine("add", "s.txt");
+        c.parseLine("commit", "side one");
+        String sideOne = c.getHashedHead();
+        c.parseLine("checkout", "master");
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        c.parseLine("merge", "side");
+        String merged = c.getHashedHead();
+        c.parseLine("checkout", "side");
+        Utils.writeContents(new File("s.txt"), "side again");
+        c.parseLine("add", "s.txt");
+        c.parseLine("commit", "side two");
+        String sideTwo = c.getHashedHead();
+
+        CommitGraph graph = CommitGraph.load();
+        assertTrue(graph.isAncestor(sideOne, merged));
+        assertEquals(sideOne, graph.mergeBase(merged, sideTwo));
+        assertEquals(sideOne, graph.mergeBase(sideTwo, merged));
+        assertEquals(1, graph.mergeBases(merged, sideTwo).size());
+        new File("s.txt").delete();
+    }
+
+    @Test
+    public void shortIds() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        for (int i = 0; i < 17; i += 1) {
+            Utils.writeContents(new File(filename), "version " + i);
+            c.add(gitAdd);
+            c.commit("git", "commit", "version " + i);
+        }
+        String head = c.getHashedHead();
+        List<String> ids = ObjectStore.commitIds();
+        String shared = null;
+        for (int i = 1; i < ids.size() && shared == null; i += 1) {
+            if (ids.get(i).charAt(0) == ids.get(i - 1).charAt(0)) {
+                shared = ids.get(i).substring(0, 1);
+            }
+        }
+        for (int round = 0; round < 2; round += 1) {
+            assertEquals(head, ObjectStore.resolveCommit(head.substring(0, 6)));
+            assertEquals(head, ObjectStore.resolveCommit(head));
+            try {
+                ObjectStore.resolveCommit(shared);
+                fail("ambiguous prefix resolved");
+            } catch (GitletException excp) {
+                assertEquals("Commit id " + shared + " is ambiguous.",
+                             excp.getMessage());
+            }
+            try {
+                ObjectStore.resolveCommit("xyz");
+                fail("bad prefix resolved");
+            } catch (GitletException excp) {
+                assertEquals("No commit with that id exists.",
+                             excp.getMessage());
+            }
+            c.parseLine("repack");
+        }
+        String first = ids.get(0);
+        c.parseLine("reset", first.substring(0, 8));
+        assertEquals(first, c.getHashedHead());
+    }
+
+    @Test
+    public void fanOutLayout() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        String head = c.getHashedHead();
+        String blob = Utils.sha1("hello there");
+        File commitFile = ObjectStore.looseCommitFile(head);
+        assertEquals(new File(ObjectStore.COMMIT_DIR,
+                              head.substring(0, 2) + "/" + head.substring(2)),
+                     commitFile);
+
+        File flatCommit = new File(ObjectStore.LEGACY_COMMIT_DIR, head);
+        File flatBlob = new File(ObjectStore.LEGACY_BLOB_DIR, blob);
+        ObjectStore.LEGACY_COMMIT_DIR.mkdir();
+        Files.move(commitFile.toPath(), flatCommit.toPath());
+        Files.move(ObjectStore.looseBlobFile(blob).toPath(), flatBlob.toPath());
+        assertEquals(flatCommit, ObjectStore.looseCommitFile(head));
+        assertEquals(head, ObjectStore.resolveCommit(head.substring(0, 5)));
+        assertTrue(ObjectStore.looseBlobIds().contains(blob));
+
+        c.parseLine("migrate-objects");
+        assertFalse(flatCommit.exists());
+        assertFalse(flatBlob.exists());
+        assertFalse(ObjectStore.LEGACY_COMMIT_DIR.exists());
+        assertEquals(commitFile, ObjectStore.looseCommitFile(head));
+        assertEquals(2, ObjectStore.looseCommitIds().size());
+        c.parseLine("checkout", head.substring(0, 5), "--", filename);
+        assertEquals("hello there",
+                     Utils.readContentsAsString(new File(filename)));
+    }
+
+    @Test
+    public void statusHashesInParallel() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        List<File> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i += 1) {
+                File f = new File("s" + (char) ('a' + i) + ".txt");
+                files.add(f);
+                Utils.writeContents(f, "file " + i);
+                c.parseLine("add", f.getName());
+            }
+            c.parseLine("commit", "twenty files");
+            Utils.writeContents(files.get(3), "changed");
+            Utils.writeContents(files.get(11), "changed");
+            files.get(7).delete();
+            Utils.writeContents(files.get(15), "staged");
+            c.parseLine("add", files.get(15).getName());
+            Utils.writeContents(files.get(15), "staged, then changed");
+            c.parseLine("rm", files.get(19).getName());
+            output.reset();
+            c.parseLine("status");
+            assertEquals("=== Branches ===\n*master\n\n"
+                         + "=== Staged Files ===\nsp.txt\n\n"
+                         + "=== Removed Files ===\nst.txt\n\n"
+                         + "=== Modifications Not Staged For Commit ===\n"
+                         + "sd.txt (modified)\nsh.txt (deleted)\n"
+                         + "sl.txt (modified)\nsp.txt (modified)\n\n"
+                         + "=== Untracked Files ===\n"
+                         + "testFile.txt\n\n",
+                         output.toString());
+        } finally {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    @Test
+    public void checkoutTouchesOnlyChanges() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        File same = new File("same.txt"), changed = new File("changed.txt");
+        File extra = new File("extra.txt");
+        try {
+            Utils.writeContents(same, "same");
+            Utils.writeContents(changed, "master");
+            c.parseLine("add", "same.txt");
+            c.parseLine("add", "changed.txt");
+            c.parseLine("commit", "master files");
+            c.parseLine("branch", "other");
+            c.parseLine("checkout", "other");
+            Utils.writeContents(changed, "other");
+            Utils.writeContents(extra, "extra");
+            c.parseLine("add", "changed.txt");
+            c.parseLine("add", "extra.txt");
+            c.parseLine("commit", "other files");
+
+            long old = System.currentTimeMillis() - 60000;
+            same.setLastModified(old);
+            c.parseLine("checkout", "master");
+            assertEquals(old, same.lastModified());
+            assertEquals("master", Utils.readContentsAsString(changed));
+            assertFalse(extra.exists());
+
+            Utils.writeContents(same, "edited");
+            c.parseLine("checkout", "other");
+            assertEquals("same", Utils.readContentsAsString(same));
+            assertEquals("other", Utils.readContentsAsString(changed));
+            assertEquals("extra", Utils.readContentsAsString(extra));
+        } finally {
+            same.delete();
+            changed.delete();
+            extra.delete();
+        }
+    }
 
+    @Test
+    public void resetModes() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        File tf = new File(filename), extra = new File("extra.txt");
+        try {
+            c.add(gitAdd);
+            c.commit(gitCommit);
+            String first = c.getHashedHead();
+            Utils.writeContents(tf, "second version");
+            Utils.writeContents(extra, "extra");
+            c.add(gitAdd);
+            c.parseLine("add", "extra.txt");
+            c.commit(gitCommit2);
+            String second = c.getHashedHead();
+
+            c.parseLine("reset", "--soft", first.substring(0, 6));
+            assertEquals(first, c.getHashedHead());
+            assertEquals("second version", Utils.readContentsAsString(tf));
+            Stage stage = Stage.load();
+            assertEquals(Set.of(filename, "extra.txt"),
+                         stage.getAdded().keySet());
+            c.commit("git", "commit", "again");
+            assertEquals(Commits.getCommit(second).getFiles(),
+                         c.getHead().getFiles());
+
+            c.parseLine("reset", "--mixed", first);
+            assertTrue(Stage.load().isEmpty());
+            assertEquals("second version", Utils.readContentsAsString(tf));
+            assertTrue(extra.exists());
+
+            c.parseLine("reset", "--hard", second);
+            c.parseLine("reset", first);
+            assertEquals("hello there", Utils.readContentsAsString(tf));
+            assertFalse(extra.exists());
+        } finally {
+            extra.delete();
+        }
+    }
+
+    @Test
+    public void nestedTrees() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        File dir = new File("src"), sub = new File("src/util");
+        File main = new File("src/Main.txt"), helper = new File(sub, "A.txt");
+        File docs = new File("docs"), readme = new File(docs, "README.txt");
+        try {
+            sub.mkdirs();
+            docs.mkdir();
+            Utils.writeContents(main, "main");
+            Utils.writeContents(helper, "helper");
+            Utils.writeContents(readme, "readme");
+            c.parseLine("add", "src/Main.txt");
+            c.parseLine("add", "src/util/A.txt");
+            c.parseLine("add", "docs/README.txt");
+            c.parseLine("commit", "nested files");
+            Commits first = c.getHead();
+            assertEquals(Set.of("src/Main.txt", "src/util/A.txt",
+                                "docs/README.txt"),
+                         first.getFiles().keySet());
+
+            Utils.writeContents(readme, "more");
+            c.parseLine("add", "docs/README.txt");
+            c.parseLine("commit", "docs only");
+            Commits second = c.getHead();
+            assertEquals(Tree.read(first.getTree()).get("src").id(),
+                         Tree.read(second.getTree()).get("src").id());
+            assertFalse(Tree.read(first.getTree()).get("docs").id()
+                        .equals(Tree.read(second.getTree()).get("docs").id()));
+
+            c.parseLine("rm", "src/util/A.txt");
+            c.parseLine("commit", "drop helper");
+            assertFalse(sub.exists());
+            assertFalse(Tree.read(c.getHead().getTree()).get("src")
+                        .id().equals(Tree.read(first.getTree())
+                                     .get("src").id()));
+            assertNull(Tree.read(Tree.read(c.getHead().getTree())
+                                 .get("src").id()).get("util"));
+
+            c.parseLine("reset", second.hash());
+            assertEquals("helper", Utils.readContentsAsString(helper));
+            c.parseLine("checkout", first.hash(), "--", "docs/README.txt");
+            assertEquals("readme", Utils.readContentsAsString(readme));
+        } finally {
+            helper.delete();
+            sub.delete();
+            main.delete();
+            dir.delete();
+            readme.delete();
+            docs.delete();
+        }
+    }
+
+    @Test
+    public void logOptions() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.add(gitAdd);
+        c.commit(gitCommit);
+        String first = c.getHashedHead();
+        Utils.writeContents(new File(filename), "second version");
+        c.add(gitAdd);
+        c.commit(gitCommit2);
+        String second = c.getHashedHead();
+
+        output.reset();
+        c.parseLine("log", "-n", "1", "--oneline");
+        assertEquals(second.substring(0, 7) + " this is a test2\n",
+                     output.toString());
+
+        output.reset();
+        c.parseLine("log", "--format=%H %p|%s%n", "-n", "2");
+        assertEquals(second + " " + first.substring(0, 7)
+                     + "|this is a test2\n\n" + first + " "
+                     + c.getHead().getP().getParent().substring(0, 7)
+                     + "|this is a test\n\n", output.toString());
+
+        output.reset();
+        c.parseLine("log", "-n", "0");
+        assertEquals("", output.toString());
+
+        output.reset();
+        c.parseLine("log", "-n", "1");
+        Commits head = c.getHead();
+        assertEquals("===\ncommit " + second + "\nDate: " + head.date()
+                     + "\nthis is a test2\n\n", output.toString());
+    }
+
+    @Test
+    public void dateOrder() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        String root = c.getHashedHead();
+        List<String> made = new ArrayList<>();
+        for (int i = 0; i < 3; i += 1) {
+            Utils.writeContents(new File(filename), "version " + i);
+            c.add(gitAdd);
+            Thread.sleep(2);
+            c.commit("git", "commit", "same message");
+            made.add(0, c.getHashedHead());
+        }
+
+        output.reset();
+        c.parseLine("find", "--date-order", "same message");
+        assertEquals(String.join("\n", made) + "\n", output.toString());
+
+        output.reset();
+        c.parseLine("global-log", "--date-order");
+        List<String> logged = new ArrayList<>();
+        for (String line : output.toString().split("\n")) {
+            if (line.startsWith("commit ")) {
+                logged.add(line.substring("commit ".length()));
+            }
+        }
+        made.add(root);
+        assertEquals(made, logged);
+
+        String ordered = output.toString();
+        Files.delete(CommitGraph.TAIL_FILE.toPath());
+        output.reset();
+        c.parseLine("global-log", "--date-order");
+        assertEquals(ordered, output.toString());
+
+        output.reset();
+        c.parseLine("global-log");
+        assertEquals(4, output.toString().split("===").length - 1);
+    }
+
+    @Test
+    public void generatedRepository() throws Exception {
+        Command c = new Command();
+        try {
+            new RepoGenerator(12, 20).changes(2).mergeEvery(4)
+                .sizes(10, 200, true).seed(7).generate(c);
+            Commits head = c.getHead();
+            assertEquals(20, head.getFiles().size());
+            assertTrue(new File(".gitlet/branches/other").exists());
+            assertTrue(new File(".gitlet/branches/topic4").exists());
+            int merges = 0, depth = 0;
+            for (String id = c.getHashedHead(); id != null;
+                 id = Commits.getCommit(id).getParent()) {
+                merges += Commits.getCommit(id).getOtherParent() == null
+                    ? 0 : 1;
+                depth += 1;
+            }
+            assertEquals(2, merges);
+            assertEquals(15, depth);
+            for (int i = 0; i < 20; i += 1) {
+                long size = new File(RepoGenerator.path(i)).length();
+                assertTrue(size > 10 && size < 220);
+            }
+            c.parseLine("merge", "other");
+            assertEquals(20, c.getHead().getFiles().size());
+        } finally {
+            for (int i = 0; i < 20; i += 1) {
+                new File(RepoGenerator.path(i)).delete();
+            }
+            new File(RepoGenerator.path(0)).getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void trace() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors));
+        try {
+            c.parseLine("--trace", "add", filename);
+            assertFalse(Trace.enabled());
+            c.parseLine("commit", "untraced");
+        } finally {
+            System.setErr(stderr);
+        }
+        String table = errors.toString();
+        assertTrue(table.startsWith("trace: add took "));
+        assertTrue(table.contains("blob write"));
+        assertTrue(table.contains("commit cache"));
+        assertFalse(table.contains("trace: commit"));
+        assertTrue(Stage.load().isEmpty());
+    }
+
+    /** Flight Recorder events are recorded only once enabled. */
+    @Test
+    public void flightRecorderEvents() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        Path dump = Files.createTempFile("gitlet", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            c.parseLine("add", filename);
+            recording.enable("gitlet.Command");
+            recording.enable("gitlet.CommitRead");
+            recording.enable("gitlet.Blob");
+            recording.enable("gitlet.WorkingTreeScan");
+            c.parseLine("commit", "recorded");
+            c.parseLine("status");
+            recording.stop();
+            recording.dump(dump);
+        }
+        List<String> commands = new ArrayList<>();
+        Set<String> names = new TreeSet<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(dump)) {
+            String name = e.getEventType().getName();
+            names.add(name);
+            if (name.equals("gitlet.Command")) {
+                commands.add(e.getString("command") + " "
+                             + e.getString("operands"));
+            }
+        }
+        Files.delete(dump);
+        assertEquals(List.of("commit recorded", "status "), commands);
+        assertTrue(names.contains("gitlet.CommitRead"));
+        assertTrue(names.contains("gitlet.WorkingTreeScan"));
+        assertFalse(names.contains("gitlet.Blob"));
+    }
+
+    /** Commits leave no temporary files behind, and the branch names a
+     *  commit that was saved before it. */
+    @Test
+    public void atomicWrites() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        c.parseLine("add", filename);
+        c.parseLine("commit", "durable");
+        Utils.writeContents(new File(filename), "rewritten");
+        assertEquals("rewritten",
+                     Utils.readContentsAsString(new File(filename)));
+        List<Path> temporary = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(Paths.get("."))) {
+            paths.filter(p -> p.toString().endsWith(".tmp"))
+                .forEach(temporary::add);
+        }
+        assertEquals(List.of(), temporary);
+        String head = c.getHashedHead();
+        assertNotNull(Commits.getCommit(head).getParent());
+        assertTrue(ObjectStore.contains(head, Pack.COMMIT));
+    }
+
+    /** Checking a file out, from a loose blob or a packed one, keeps its
+     *  permissions. */
+    @Test
+    public void checkoutKeepsPermissions() throws Exception {
+        Command c = new Command();
+        c.init(gitInit);
+        File f = new File(filename);
+        assertTrue(f.setExecutable(true));
+        c.parseLine("add", filename);
+        c.parseLine("commit", "executable");
+        Utils.writeContents(f, "changed");
+        c.parseLine("checkout", "--", filename);
+        assertTrue(f.canExecute());
+        assertEquals("hello there", Utils.readContentsAsString(f));
+        c.parseLine("repack");
+        Utils.writeContents(f, "changed again");
+        c.parseLine("checkout", "--", filename);
+        assertTrue(f.canExecute());
+        assertEquals("hello there", Utils.readContentsAsString(f));
+    }
+
+    /** log -n reads only the commits it prints, even when the commit
+     *  graph knows none of them. */
+    @Test
+    public void logReadsOnlyCount() throws Exception {
+        Command c = new Command();
+        c.parseLine("init");
+        for (int i = 0; i < 6; i += 1) {
+            Utils.writeContents(new File(filename), "version " + i);
+            c.parseLine("add", filename);
+            c.parseLine("commit", "version " + i);
+        }
+        Files.delete(CommitGraph.TAIL_FILE.toPath());
+        output.reset();
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors));
+        try {
+            c.parseLine("--trace", "log", "-n", "2", "--oneline");
+        } finally {
+            System.setErr(stderr);
+        }
+        assertEquals(2, output.toString().split("\n").length);
+        Matcher m = Pattern.compile("commit cache (\\d+) hits, (\\d+) misses")
+            .matcher(errors.toString());
+        assertTrue(m.find());
+        assertEquals(2, Integer.parseInt(m.group(1))
+                     + Integer.parseInt(m.group(2)));
+    }
+
+    /** add and checkout of one file read only the trees on its path. */
+    @Test
+    public void singlePathLookups() throws Exception {
+        Command c = new Command();
+        c.parseLine("init");
+        for (int i = 0; i < 10; i += 1) {
+            File f = new File("d" + i + "/f.txt");
+            f.getParentFile().mkdirs();
+            Utils.writeContents(f, "file " + i);
+            c.parseLine("add", f.getPath());
+        }
+        c.parseLine("commit", "ten directories");
+        Utils.writeContents(new File("d3/f.txt"), "changed");
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors));
+        try {
+            c.parseLine("--trace", "add", "d3/f.txt");
+        } finally {
+            System.setErr(stderr);
+        }
+        Matcher m = Pattern.compile("decode tree +(\\d+)")
+            .matcher(errors.toString());
+        assertTrue(m.find());
+        assertEquals(2, Integer.parseInt(m.group(1)));
+
+        Commits head = c.getHead();
+        assertEquals(Utils.sha1("file 4"), head.getFile("d4/f.txt"));
+        assertNull(head.getFile("d4"));
+        assertNull(head.getFile("d4/g.txt"));
+        assertNull(head.getFile("d4/f.txt/x"));
+        for (int i = 0; i < 10; i += 1) {
+            Utils.deleteWorkingFile("d" + i + "/f.txt");
+        }
+    }
+
+    /** A merge commit empties the stage, so a commit right after it has
+     *  nothing to commit. */
+    @Test
+    public void mergeClearsStage() throws Exception {
+        Command c = new Command();
+        c.parseLine("init");
+        c.parseLine("branch", "other");
+        c.parseLine("checkout", "other");
+        Utils.writeContents(new File("o.txt"), "other");
+        c.parseLine("add", "o.txt");
+        c.parseLine("commit", "other file");
+        c.parseLine("checkout", "master");
+        c.parseLine("add", filename);
+        c.parseLine("commit", "master file");
+        c.parseLine("merge", "other");
+        assertTrue(Stage.load().isEmpty());
+        String merged = c.getHashedHead();
+        try {
+            c.parseLine("commit", "nothing");
+            fail("commit with no changes succeeded");
+        } catch (GitletException excp) {
+            assertEquals("No changes added to the commit.", excp.getMessage());
+        }
+        assertEquals(merged, c.getHashedHead());
+        new File("o.txt").delete();
+    }
+
+    /** A record cut short at the end of the stage, the message index
+     *  or the commit graph's tail, as a crash can leave it, is dropped
+     *  and later records still read back. */
+    @Test
+    public void tornStateFiles() throws Exception {
+        Command c = new Command();
+        c.parseLine("init");
+        c.parseLine("add", filename);
+        c.parseLine("commit", "first");
+        String first = c.getHashedHead();
+        MessageIndex.load();
+        byte[] torn = {'A', 0, 9, 'x'};
+        Files.write(Stage.STAGE_FILE.toPath(), torn);
+        Files.write(MessageIndex.INDEX_FILE.toPath(), torn,
+                    StandardOpenOption.APPEND);
+        Files.write(CommitGraph.TAIL_FILE.toPath(), torn,
+                    StandardOpenOption.APPEND);
+
+        assertTrue(Stage.load().isEmpty());
+        Utils.writeContents(new File(filename), "second version");
+        c.parseLine("add", filename);
+        assertEquals(Set.of(filename), Stage.load().getAdded().keySet());
+        c.parseLine("commit", "second");
+        String second = c.getHashedHead();
+
+        MessageIndex index = MessageIndex.load();
+        assertEquals(Set.of(first), index.exact("first"));
+        assertEquals(Set.of(second), index.exact("second"));
+        CommitGraph graph = CommitGraph.load();
+        assertEquals(3, graph.generation(second));
+        assertEquals(first, graph.firstParent(second));
+    }
+
+    /** repack reads each tree once to name the blobs, however many
+     *  commits share it. */
+    @Test
+    public void repackReadsTreesOnce() throws Exception {
+        Command c = new Command();
+        try {
+            new RepoGenerator(10, 120).changes(1).seed(3).generate(c);
+            int trees = ObjectStore.looseTreeIds().size();
+            PrintStream stderr = System.err;
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(errors));
+            try {
+                c.parseLine("--trace", "repack");
+            } finally {
+                System.setErr(stderr);
+            }
+            Matcher m = Pattern.compile("decode tree +(\\d+)")
+                .matcher(errors.toString());
+            assertTrue(m.find());
+            assertTrue(Integer.parseInt(m.group(1)) <= trees);
+        } finally {
+            for (int i = 0; i < 120; i += 1) {
+                Utils.deleteWorkingFile(RepoGenerator.path(i));
+            }
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decoded commits by id, kept by Commits.getCommit so that a commit read
+ * again, within one command or across the commands of a Daemon or
+ * Batch, is not decoded again.  Commits never change once written, so
+ * an entry is never stale.  The cache holds commits up to a budget of
+ * estimated memory, evicting the least recently used first.  The budget
+ * is read from the system property gitlet.commitCache, or else the
+ * environment variable GITLET_COMMIT_CACHE, as a number of bytes with an
+ * optional suffix k, m or g; 0 turns the cache off.
+ *
+ * @author Mohammad Khizar
+ */
+class CommitCache {
+
+    /** Name of the system property setting the budget. */
+    static final String PROPERTY = "gitlet.commitCache";
+    /** Name of the environment variable setting the budget. */
+    static final String ENV = "GITLET_COMMIT_CACHE";
+    /** Budget used when none is set, in bytes. */
+    static final long DEFAULT_BUDGET = 32L << 20;
+
+    /** Estimated bytes taken by a commit apart from its message and
+     *  files. */
+    private static final int COMMIT_OVERHEAD = 256;
+    /** Estimated bytes taken by a file entry apart from its name and
+     *  blob id. */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /** The cache of the current process. */
+    private static final CommitCache CACHE = new CommitCache(budgetSetting());
+
+    /** Cached commits, least recently used first. */
+    private final LinkedHashMap<String, Commits> _commits =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Estimated sizes of the cached commits. */
+    private final Map<String, Long> _sizes = new HashMap<>();
+    /** Largest estimated total size of the cached commits. */
+    private final long _budget;
+    /** Estimated total size of the cached commits. */
+    private long _bytes;
+    /** Number of lookups that found their commit. */
+    private long _hits;
+    /** Number of lookups that did not. */
+    private long _misses;
+
+    /** A cache of at most BUDGET bytes. */
+    CommitCache(long budget) {
+        _budget = budget;
+    }
+
+    /** Return the cache of the current process. */
+    static CommitCache get() {
+        return CACHE;
+    }
+
+    /** Return the commit with id ID, or null if it is not cached. */
+    synchronized Commits lookup(String id) {
+        Commits c = _commits.get(id);
+        if (c == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return c;
+    }
+
+    /** Cache commit C with id ID, evicting others as needed to stay
+     *  within the budget.  A commit larger than the budget is not
+     *  cached. */
+    synchronized void put(String id, Commits c) {
+        long size = weigh(c);
+        if (size > _budget || _commits.containsKey(id)) {
+            return;
+        }
+        _commits.put(id, c);
+        _sizes.put(id, size);
+        _bytes += size;
+        evict();
+    }
+
+    /** Estimate again the size of commit C with id ID, if cached, as
+     *  after its files are loaded from its tree. */
+    synchronized void reweigh(String id, Commits c) {
+        if (_commits.get(id) != c) {
+            return;
+        }
+        long size = weigh(c);
+        _bytes += size - _sizes.put(id, size);
+        evict();
+    }
+
+    /** Evict the least recently used commits until the cache is within
+     *  its budget. */
+    private void evict() {
+        Iterator<String> eldest = _commits.keySet().iterator();
+        while (_bytes > _budget) {
+            String victim = eldest.next();
+            eldest.remove();
+            _bytes -= _sizes.remove(victim);
+        }
+    }
+
+    /** Number of lookups that found their commit. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Number of lookups that did not find their commit. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Number of commits cached. */
+    synchronized int size() {
+        return _commits.size();
+    }
+
+    /** Estimated total size of the cached commits, in bytes. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Largest estimated total size of the cached commits, in bytes. */
+    long budget() {
+        return _budget;
+    }
+
+    /** Return the estimated memory taken by C, in bytes.  The files of
+     *  a commit that are still only in its tree are not counted. */
+    static long weigh(Commits c) {
+        long size = COMMIT_OVERHEAD + 2L * c.logMessage().length();
+        if (!c.filesLoaded()) {
+            return size;
+        }
+        for (String name : c.getFiles().keySet()) {
+            size += ENTRY_OVERHEAD
+                + 2L * (name.length() + Utils.UID_LENGTH);
+        }
+        return size;
+    }
+
+    /** Return the budget set for this process, or DEFAULT_BUDGET. */
+    private static long budgetSetting() {
+        String setting = System.getProperty(PROPERTY, System.getenv(ENV));
+        if (setting == null || setting.isBlank()) {
+            return DEFAULT_BUDGET;
+        }
+        try {
+            return parseSize(setting);
+        } catch (NumberFormatException excp) {
+            return DEFAULT_BUDGET;
+        }
+    }
+
+    /** Return the number of bytes denoted by SETTING: a non-negative
+     *  number, optionally followed by k, m or g. */
+    static long parseSize(String setting) {
+        String s = setting.trim().toLowerCase(Locale.ROOT);
+        int shift = 0;
+        if (s.endsWith("k")) {
+            shift = 10;
+        } else if (s.endsWith("m")) {
+            shift = 20;
+        } else if (s.endsWith("g")) {
+            shift = 30;
+        }
+        if (shift > 0) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long n = Long.parseLong(s);
+        if (n < 0) {
+            throw new NumberFormatException(setting);
+        }
+        return n << shift;
+    }
+}
@@ -0,0 +1,468 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The commit graph (.gitlet/commit-graph): for every commit, its
+ * parents, generation number and commit time, so that history can be
+ * walked without reading commit objects.  The file holds a 256-entry
+ * fan-out table, the sorted raw commit ids, and then one fixed-width
+ * record per commit: the positions of its two parents (-1 for none),
+ * its generation (one more than that of its highest parent, 1 for a
+ * root) and its time in milliseconds.  Each commit made since is
+ * appended to a tail (.gitlet/commit-graph.tail) as one record of its
+ * id, parent count, parents, generation and time, and once the tail
+ * holds TAIL_LIMIT records the two are merged into a new graph file.
+ * Commits in neither, such as those of a repository made before the
+ * graph, are looked up in the object store instead.
+ *
+ * @author Mohammad Khizar
+ */
+class CommitGraph {
+
+    /** The file holding the graph. */
+    static final File GRAPH_FILE = new File(".gitlet/commit-graph");
+    /** The file holding commits added since the graph was written. */
+    static final File TAIL_FILE = new File(".gitlet/commit-graph.tail");
+
+    /** Magic number at the start of the graph. */
+    private static final int MAGIC = 0x47434731;
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /** Length of a record. */
+    private static final int RECORD_BYTES = 20;
+    /** Position of the first id. */
+    private static final int IDS_START = 8 + 256 * 4;
+    /** Length of a record in the tail. */
+    private static final int TAIL_RECORD_BYTES = 3 * ID_BYTES + 13;
+    /** Number of tail records that causes the graph to be rewritten. */
+    static final int TAIL_LIMIT = 1024;
+    /** Mark of a commit reachable from the first side of a merge-base
+     *  query. */
+    private static final int FROM_A = 1;
+    /** Mark of a commit reachable from the second side. */
+    private static final int FROM_B = 2;
+    /** Marks of a commit reachable from both sides. */
+    private static final int BOTH = FROM_A | FROM_B;
+    /** Mark of a commit below a common ancestor already found. */
+    private static final int STALE = 4;
+
+    /** What is known about one commit. */
+    private static class Node {
+        /** Parent ids, first parent first. */
+        private String[] parents;
+        /** Generation number. */
+        private int generation;
+        /** Commit time in milliseconds. */
+        private long time;
+    }
+
+    /** The mapped graph file, or null if there is none. */
+    private final MappedByteBuffer _map;
+    /** Number of commits in the graph file. */
+    private final int _count;
+    /** Commits looked up outside the graph file. */
+    private final HashMap<String, Node> _extra = new HashMap<>();
+
+    /** A graph whose file is mapped in MAP, or null. */
+    private CommitGraph(MappedByteBuffer map) {
+        _map = map;
+        _count = map == null ? 0 : map.getInt(4);
+    }
+
+    /** Return the commit graph of the current repository. */
+    static CommitGraph load() {
+        CommitGraph result = new CommitGraph(null);
+        if (GRAPH_FILE.isFile()) {
+            try (FileChannel ch = FileChannel.open(GRAPH_FILE.toPath())) {
+                MappedByteBuffer map =
+                    ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                result = new CommitGraph(map.getInt(0) == MAGIC ? map : null);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        result.readTail();
+        return result;
+    }
+
+    /** Read the tail's records into the commits looked up outside the
+     *  graph file.  A record cut short by a crash is cut off the file, so
+     *  that the next one appended starts where it should. */
+    private void readTail() {
+        if (!TAIL_FILE.isFile()) {
+            return;
+        }
+        byte[] tail = Utils.readContents(TAIL_FILE);
+        if (tail.length % TAIL_RECORD_BYTES != 0) {
+            try (FileChannel ch = FileChannel.open(
+                     TAIL_FILE.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(tail.length - tail.length % TAIL_RECORD_BYTES);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ByteBuffer buf = ByteBuffer.wrap(tail);
+        byte[] id = new byte[ID_BYTES];
+        while (buf.remaining() >= TAIL_RECORD_BYTES) {
+            Node n = new Node();
+            buf.get(id);
+            String name = Utils.toHex(id);
+            n.parents = new String[Math.min(2, buf.get())];
+            for (int i = 0; i < 2; i += 1) {
+                buf.get(id);
+                if (i < n.parents.length) {
+                    n.parents[i] = Utils.toHex(id);
+                }
+            }
+            n.generation = buf.getInt();
+            n.time = buf.getLong();
+            _extra.put(name, n);
+        }
+    }
+
+    /** Record commit C, whose id is ID and which was just saved, in the
+     *  tail, merging the tail into a new graph file once it is full.
+     *  Computing its generation reads only the parents' records, unless
+     *  they are missing from both the file and the tail. */
+    static void add(String id, Commits c) {
+        CommitGraph graph = load();
+        if (graph.find(id) >= 0 || graph._extra.containsKey(id)) {
+            return;
+        }
+        String[] parents = parentsOf(c);
+        int gen = 0;
+        for (String p : parents) {
+            gen = Math.max(gen, graph.generation(p));
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(TAIL_FILE, true)))) {
+            out.write(Utils.fromHex(id));
+            out.writeByte(parents.length);
+            for (int i = 0; i < 2; i += 1) {
+                out.write(i < parents.length ? Utils.fromHex(parents[i])
+                          : new byte[ID_BYTES]);
+            }
+            out.writeInt(gen + 1);
+            out.writeLong(c.getTimeCommit().getTime());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(TAIL_FILE);
+        if (graph._extra.size() + 1 >= TAIL_LIMIT) {
+            write();
+        }
+    }
+
+    /** Return the parents of commit C, first parent first. */
+    private static String[] parentsOf(Commits c) {
+        if (c.getParent() == null) {
+            return new String[0];
+        } else if (c.getOtherParent() == null) {
+            return new String[] { c.getParent() };
+        }
+        return new String[] { c.getParent(), c.getOtherParent() };
+    }
+
+    /** Return the parents of commit ID, first parent first.  A commit
+     *  in neither the graph file nor the tail is read by itself, without
+     *  working out its generation. */
+    String[] parents(String id) {
+        int k = find(id);
+        if (k < 0) {
+            Node n = _extra.get(id);
+            return n != null ? n.parents
+                : parentsOf(Commits.getCommit(id));
+        }
+        int p1 = _map.getInt(record(k)), p2 = _map.getInt(record(k) + 4);
+        if (p1 < 0) {
+            return new String[0];
+        } else if (p2 < 0) {
+            return new String[] { idAt(p1) };
+        }
+        return new String[] { idAt(p1), idAt(p2) };
+    }
+
+    /** Return the first parent of commit ID, or null for a root. */
+    String firstParent(String id) {
+        String[] parents = parents(id);
+        return parents.length == 0 ? null : parents[0];
+    }
+
+    /** Return the generation number of commit ID. */
+    int generation(String id) {
+        int k = find(id);
+        return k < 0 ? node(id).generation : _map.getInt(record(k) + 8);
+    }
+
+    /** Return the time of commit ID in milliseconds. */
+    long time(String id) {
+        int k = find(id);
+        return k < 0 ? node(id).time : _map.getLong(record(k) + 12);
+    }
+
+    /** Return IDS sorted newest first, ties by id, by the times in the
+     *  graph file and tail, or null if either lacks any of them. */
+    List<String> newestFirst(List<String> ids) {
+        HashMap<String, Long> times = new HashMap<>();
+        for (String id : ids) {
+            int k = find(id);
+            Node n = k < 0 ? _extra.get(id) : null;
+            if (k < 0 && n == null) {
+                return null;
+            }
+            times.put(id, k < 0 ? n.time : _map.getLong(record(k) + 12));
+        }
+        List<String> result = new ArrayList<>(ids);
+        result.sort(Comparator.comparingLong((String id) -> -times.get(id))
+                    .thenComparing(id -> id));
+        return result;
+    }
+
+    /** Return true iff commit ANCESTOR is DESCENDANT or one of its
+     *  ancestors through any parent.  Only commits whose generation is
+     *  above that of ANCESTOR are visited. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int floor = generation(ancestor);
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(descendant);
+        while (!todo.isEmpty()) {
+            String c = todo.pop();
+            if (c.equals(ancestor)) {
+                return true;
+            }
+            if (seen.add(c) && generation(c) > floor) {
+                for (String p : parents(c)) {
+                    todo.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the best common ancestor of commits A and B: of the common
+     *  ancestors that are not ancestors of other common ancestors, the
+     *  one with the highest generation, then the latest. */
+    String mergeBase(String a, String b) {
+        List<String> bases = mergeBases(a, b);
+        return bases.isEmpty() ? null : bases.get(0);
+    }
+
+    /** Return the common ancestors of commits A and B that are not
+     *  ancestors of any other common ancestor, best first.  Commits are
+     *  visited from both sides at once in order of decreasing generation,
+     *  each painted with the side(s) it is reachable from; a commit
+     *  reachable from both is a candidate, and its ancestors are marked
+     *  stale.  Since a parent's generation is below its children's, a
+     *  commit's marks are final when it leaves the queue.  The walk ends
+     *  when only stale commits remain queued. */
+    List<String> mergeBases(String a, String b) {
+        List<String> result = new ArrayList<>();
+        if (a.equals(b)) {
+            result.add(a);
+            return result;
+        }
+        HashMap<String, Integer> flags = new HashMap<>();
+        HashMap<String, Long> order = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(
+            Comparator.comparingLong((String c) -> -order.computeIfAbsent(
+                c, x -> ((long) generation(x) << 32) + time(x) / 1000)));
+        flags.put(a, FROM_A);
+        flags.put(b, FROM_B);
+        queue.add(a);
+        queue.add(b);
+        int live = 2;
+        while (live > 0) {
+            String c = queue.poll();
+            int f = flags.get(c);
+            if ((f & STALE) == 0) {
+                live -= 1;
+                if ((f & BOTH) == BOTH) {
+                    result.add(c);
+                    f |= STALE;
+                }
+            }
+            for (String p : parents(c)) {
+                int old = flags.getOrDefault(p, 0), now = old | f;
+                if (now == old) {
+                    continue;
+                }
+                flags.put(p, now);
+                if (old == 0) {
+                    queue.add(p);
+                    if ((now & STALE) == 0) {
+                        live += 1;
+                    }
+                } else if ((old & STALE) == 0 && (now & STALE) != 0) {
+                    live -= 1;
+                }
+            }
+        }
+        result.removeIf(x -> result.stream().anyMatch(
+            y -> !y.equals(x) && isAncestor(x, y)));
+        result.sort(Comparator.comparingInt((String c) -> -generation(c))
+                    .thenComparingLong(c -> -time(c)));
+        return result;
+    }
+
+    /** Return the node for commit ID, which is not in the graph file,
+     *  reading it and any of its ancestors missing from the file. */
+    private Node node(String id) {
+        Node n = _extra.get(id);
+        if (n != null) {
+            return n;
+        }
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String top = todo.peek();
+            if (_extra.containsKey(top)) {
+                todo.pop();
+                continue;
+            }
+            Commits c = Commits.getCommit(top);
+            String[] parents = parentsOf(c);
+            int gen = 0;
+            boolean ready = true;
+            for (String p : parents) {
+                if (find(p) >= 0) {
+                    gen = Math.max(gen, generation(p));
+                } else if (_extra.containsKey(p)) {
+                    gen = Math.max(gen, _extra.get(p).generation);
+                } else {
+                    todo.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                Node m = new Node();
+                m.parents = parents;
+                m.generation = gen + 1;
+                m.time = c.getTimeCommit().getTime();
+                _extra.put(top, m);
+                todo.pop();
+            }
+        }
+        return _extra.get(id);
+    }
+
+    /** Return the position of ID in the graph file, or -1. */
+    private int find(String id) {
+        if (_map == null || id == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1), hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareId(mid, key);
+            if (c == 0) {
+                return mid;
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Number of ids whose first byte is at most B. */
+    private int fanout(int b) {
+        return _map.getInt(8 + 4 * b);
+    }
+
+    /** Compare the id at position K with KEY. */
+    private int compareId(int k, byte[] key) {
+        int base = IDS_START + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int c = (_map.get(base + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the id at position K. */
+    private String idAt(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _map.get(IDS_START + k * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Position of the record of the commit at position K. */
+    private int record(int k) {
+        return IDS_START + _count * ID_BYTES + k * RECORD_BYTES;
+    }
+
+    /** Write the graph of every commit in the repository, taking what
+     *  the current graph file and tail already record, and empty the
+     *  tail.  Returns the number of commits written. */
+    static int write() {
+        List<String> ids = new ArrayList<>(ObjectStore.commitIds());
+        Collections.sort(ids);
+        HashMap<String, Integer> pos = new HashMap<>();
+        for (int k = 0; k < ids.size(); k += 1) {
+            pos.put(ids.get(k), k);
+        }
+        CommitGraph known = load();
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        File tmp = new File(GRAPH_FILE.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(ids.size());
+                int total = 0;
+                for (int n : fanout) {
+                    total += n;
+                    out.writeInt(total);
+                }
+                for (String id : ids) {
+                    out.write(Utils.fromHex(id));
+                }
+                for (String id : ids) {
+                    String[] parents = known.parents(id);
+                    out.writeInt(parents.length > 0
+                                 ? pos.get(parents[0]) : -1);
+                    out.writeInt(parents.length > 1
+                                 ? pos.get(parents[1]) : -1);
+                    out.writeInt(known.generation(id));
+                    out.writeLong(known.time(id));
+                }
+            }
+            Utils.replace(tmp.toPath(), GRAPH_FILE.toPath());
+            Files.deleteIfExists(TAIL_FILE.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(GRAPH_FILE);
+        Utils.syncLater(TAIL_FILE);
+        return ids.size();
+    }
+}
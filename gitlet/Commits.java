@@ -1,20 +1,47 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
 
 /**
  * Commit class for Gitlet.
  *
+ * A commit is stored in a compact binary form: the four bytes "GLC" and
+ * a format version, the commit time in milliseconds, a count of parents
+ * followed by their raw 20-byte ids, the log message, and the tracked
+ * files sorted by name, each a name and a raw blob id.  Counts and
+ * string lengths are varints and strings are UTF-8.  From format
+ * version 2 the tracked files are instead given by the raw id of a root
+ * Tree, so that a commit shares every unchanged directory with its
+ * parent and is made in time proportional to the paths it changes.
+ * Commits written in version 1, and by older versions with Java
+ * serialization, are still read; the initial commit keeps version 1 so
+ * that its id does not change.
  *
  * @author Mohammad Khizar
  */
 
 public class Commits implements Serializable {
+    /**
+     * Serialization version, fixed at its value from before the staging
+     * area moved out of commits so that older commits still load.
+     */
+    private static final long serialVersionUID = 993386556330500559L;
     /**
      * A log message for a commit.
      */
@@ -28,17 +55,19 @@ public class Commits implements Serializable {
      */
     private String _parent;
     /**
-     * Hashmap of files for a commit.
+     * Hashmap of files for a commit, filled from _tree when first needed.
      */
     private HashMap<String, String> files;
     /**
-     * Stage of a commit.
+     * Id of the root tree of a commit, or null if its files are stored
+     * inline.
      */
-    private HashMap<String, String> stage;
+    private String _tree;
     /**
-     * An array of untracked files.
+     * Id of a commit read by getCommit, so that it can be weighed again
+     * once its files are loaded.
      */
-    private ArrayList<String> untrackedFiles;
+    private transient String _id;
 
 
     /**
@@ -46,6 +75,39 @@ public class Commits implements Serializable {
      */
     private String otherParent = null;
 
+    /**
+     * Leading bytes of an encoded commit, ending in the format version.
+     */
+    private static final byte[] MAGIC = {'G', 'L', 'C', 1};
+    /**
+     * Leading bytes of an encoded commit whose files are a tree.
+     */
+    private static final byte[] TREE_MAGIC = {'G', 'L', 'C', 2};
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of commits read by each task of scan.
+     */
+    private static final int SCAN_CHUNK = 512;
+    /**
+     * Length of an abbreviated id.
+     */
+    static final int SHORT_ID = 7;
+    /**
+     * Format of commit times in log, shared since it is immutable.
+     */
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z")
+        .withZone(ZoneId.systemDefault());
+
+    /**
+     * Constructor for a commit that is about to be decoded.
+     */
+    private Commits() {
+    }
+
     /**
      * Constructor for Commits, LOGMESSAGE, TIMECOMMIT, PARENT.
      */
@@ -57,9 +119,7 @@ public class Commits implements Serializable {
         _logMessage = logMessage;
         _timeCommit = timeCommit;
         _parent = parent;
-        stage = new HashMap<>();
         files = makeCommit(getP());
-        this.untrackedFiles = new ArrayList<>();
     }
 
     /**
@@ -74,53 +134,56 @@ public class Commits implements Serializable {
 
 
     /**
-     * making commit Par.
+     * making commit Par, applying the staging area to its tree.  Only
+     * the directories holding staged paths are rewritten; a parent whose
+     * files are inline has them all moved into a new tree.
      * @param parent takes in par
-     * @return files.
+     * @return files, or null until they are needed.
      */
 
     public HashMap<String, String> makeCommit(Commits parent) {
-        files = new HashMap<>();
         if (parent == null) {
-            return files;
+            return new HashMap<>();
         }
-        if (parent.stage.isEmpty() && parent.untrackedFiles.isEmpty()) {
+        Stage stage = Stage.load();
+        if (stage.isEmpty()) {
             throw new GitletException("No changes added to the commit.");
         }
-        for (String name : parent.files.keySet()) {
-            if (!parent.untrackedFiles.contains(name)) {
-                files.put(name, parent.files.get(name));
-            }
+        HashMap<String, String> changes = new HashMap<>();
+        if (parent._tree == null) {
+            changes.putAll(parent.getFiles());
         }
-        for (String name : parent.stage.keySet()) {
-            files.put(name, parent.stage.get(name));
+        for (String name : stage.getRemoved()) {
+            changes.put(name, null);
         }
-        return files;
+        changes.putAll(stage.getAdded());
+        _tree = Tree.update(parent._tree, changes);
+        return null;
     }
 
     /**
      *Adding it to the stage.
      * @param name takes in teh name
+     * @param stage the staging area
      */
 
-    public void addToStage(String name) {
+    public void addToStage(String name, Stage stage) {
 
         File commitFile = new File(name);
         if (!commitFile.exists()) {
             throw new GitletException("File does not exist.");
         }
-        if (untrackedFiles.contains(name)) {
-            untrackedFiles.remove(name);
+        if (stage.getRemoved().contains(name)) {
+            stage.unstage(name);
         } else {
-            String contents = Utils.readContentsAsString(commitFile);
-            String hash = Utils.sha1(contents);
-            stage.put(name, hash);
-
-            if (hash.equals(files.get(name))) {
-                stage.remove(name);
-            } else {
-                File stageFile = new File(".gitlet/" + hash);
-                Utils.writeContents(stageFile, contents);
+            String hash = ObjectStore.writeBlob(commitFile);
+
+            if (hash.equals(getFile(name))) {
+                if (stage.getAdded().containsKey(name)) {
+                    stage.unstage(name);
+                }
+            } else if (!hash.equals(stage.getAdded().get(name))) {
+                stage.add(name, hash);
             }
         }
 
@@ -133,8 +196,16 @@ public class Commits implements Serializable {
      */
 
     public void saveCommit(String name) {
-        File commitFile = new File(".gitlet/logcommits/" + name);
-        Utils.writeObject(commitFile, this);
+        ObjectStore.write(name, Pack.COMMIT, encode());
+    }
+
+    /**
+     * The id of this commit.
+     * @return the SHA-1 of its encoding.
+     */
+
+    public String hash() {
+        return Utils.sha1(encode());
     }
 
     /**
@@ -143,30 +214,253 @@ public class Commits implements Serializable {
      */
 
     public static Commits getCommit(String name) {
-        if (name.equals(Utils.sha1(Utils.serialize(null)))) {
-            return null;
+        Events.CommitReadEvent event = new Events.CommitReadEvent();
+        event.begin();
+        CommitCache cache = CommitCache.get();
+        Commits cached = cache.lookup(name);
+        if (cached != null) {
+            if (event.shouldCommit()) {
+                event.id = name;
+                event.cached = true;
+                event.commit();
+            }
+            return cached;
         }
-        File commitFile = new File(".gitlet/logcommits/" + name);
-        if (!commitFile.exists()) {
+        byte[] stored = ObjectStore.readCommit(name);
+        if (stored == null) {
             throw new GitletException("No commit with that id exists.");
 
         }
-        return Utils.readObject(commitFile, Commits.class);
+        long decodeStart = event.isEnabled() ? System.nanoTime() : 0;
+        Commits result = decode(stored);
+        result._id = name;
+        cache.put(name, result);
+        if (event.shouldCommit()) {
+            event.decodeTime = System.nanoTime() - decodeStart;
+            event.id = name;
+            event.bytes = stored.length;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Read the commits IDS in parallel, SCAN_CHUNK at a time, and pass
+     * each with its id to ACTION on the calling thread.  They come in
+     * the order of IDS unless BYTIME, in which case they come newest
+     * first, ties by id.  Either way each chunk is passed on as soon as
+     * it and those before it are read, if the commit graph records the
+     * time of every commit, so that IDS can be put in order first;
+     * otherwise, by time, all are read and then sorted once.
+     * @param ids the commits
+     * @param byTime whether to order them by time
+     * @param action what to do with each
+     */
+
+    public static void scan(List<String> ids, boolean byTime,
+                            BiConsumer<String, Commits> action) {
+        if (byTime) {
+            List<String> ordered = CommitGraph.load().newestFirst(ids);
+            if (ordered == null) {
+                scanUnordered(ids, action);
+                return;
+            }
+            ids = ordered;
+        }
+        List<Callable<List<Map.Entry<String, Commits>>>> tasks =
+            new ArrayList<>();
+        for (int k = 0; k < ids.size(); k += SCAN_CHUNK) {
+            List<String> chunk =
+                ids.subList(k, Math.min(k + SCAN_CHUNK, ids.size()));
+            tasks.add(() -> {
+                List<Map.Entry<String, Commits>> read = new ArrayList<>();
+                for (String id : chunk) {
+                    read.add(Map.entry(id, getCommit(id)));
+                }
+                return read;
+            });
+        }
+        Utils.streamAll(tasks, read -> {
+                for (Map.Entry<String, Commits> e : read) {
+                    action.accept(e.getKey(), e.getValue());
+                }
+            });
+    }
+
+    /**
+     * Read the commits IDS, whose times the commit graph does not all
+     * know, and pass each with its id to ACTION newest first, ties by
+     * id, once all are read.
+     * @param ids the commits
+     * @param action what to do with each
+     */
+
+    private static void scanUnordered(List<String> ids,
+                                      BiConsumer<String, Commits> action) {
+        List<Map.Entry<String, Commits>> all = new ArrayList<>();
+        scan(ids, false, (id, c) -> all.add(Map.entry(id, c)));
+        all.sort(Comparator.comparing((Map.Entry<String, Commits> e) ->
+                                      e.getValue().getTimeCommit()).reversed()
+                 .thenComparing(Map.Entry::getKey));
+        for (Map.Entry<String, Commits> e : all) {
+            action.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Rewrite every Java-serialized commit in the binary commit format,
+     * keeping its id so that branches and parent references still hold.
+     * @return the number of commits rewritten.
+     */
+
+    public static int migrate() {
+        int count = 0;
+        for (String id : ObjectStore.commitIds()) {
+            byte[] stored = ObjectStore.readCommit(id);
+            if (!isEncoded(stored)) {
+                decode(stored).saveCommit(id);
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Encode this commit in the binary commit format.
+     * @return the encoding.
+     */
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(_tree == null ? MAGIC : TREE_MAGIC);
+        long time = _timeCommit.getTime();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (time >>> shift));
+        }
+        int parents = _parent == null ? 0 : otherParent == null ? 1 : 2;
+        out.write(parents);
+        if (parents > 0) {
+            out.writeBytes(Utils.fromHex(_parent));
+        }
+        if (parents > 1) {
+            out.writeBytes(Utils.fromHex(otherParent));
+        }
+        writeString(out, _logMessage);
+        if (_tree != null) {
+            out.writeBytes(Utils.fromHex(_tree));
+            return out.toByteArray();
+        }
+        Utils.writeVarint(out, files.size());
+        for (Map.Entry<String, String> e : new TreeMap<>(files).entrySet()) {
+            writeString(out, e.getKey());
+            out.writeBytes(Utils.fromHex(e.getValue()));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a commit from its stored form DATA, which is either the
+     * binary commit format or a Java-serialized commit.
+     * @return the commit.
+     */
+
+    public static Commits decode(byte[] data) {
+        if (!isEncoded(data)) {
+            return Utils.deserialize(data, Commits.class);
+        }
+        long start = Trace.start();
+        int[] pos = {MAGIC.length};
+        Commits c = new Commits();
+        long time = 0;
+        for (int i = 0; i < 8; i += 1) {
+            time = (time << 8) | (data[pos[0]++] & 0xff);
+        }
+        c._timeCommit = new Date(time);
+        int parents = data[pos[0]++];
+        if (parents > 0) {
+            c._parent = readId(data, pos);
+        }
+        if (parents > 1) {
+            c.otherParent = readId(data, pos);
+        }
+        c._logMessage = readString(data, pos);
+        if (data[MAGIC.length - 1] == TREE_MAGIC[MAGIC.length - 1]) {
+            c._tree = readId(data, pos);
+            Trace.end(Trace.Op.COMMIT_DECODE, start, data.length);
+            return c;
+        }
+        int n = (int) Utils.readVarint(data, pos);
+        c.files = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            String name = readString(data, pos);
+            c.files.put(name, readId(data, pos));
+        }
+        Trace.end(Trace.Op.COMMIT_DECODE, start, data.length);
+        return c;
+    }
+
+    /**
+     * Whether DATA is in the binary commit format.
+     * @return true iff DATA starts with the format's magic bytes.
+     */
+
+    public static boolean isEncoded(byte[] data) {
+        return data.length >= MAGIC.length
+            && (Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                || Arrays.equals(data, 0, MAGIC.length,
+                                 TREE_MAGIC, 0, MAGIC.length));
+    }
+
+    /**
+     * Write the length and UTF-8 bytes of STR to OUT.
+     */
+
+    private static void writeString(ByteArrayOutputStream out, String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Read a string written by writeString from DATA at POS[0].
+     * @return the string.
+     */
+
+    private static String readString(byte[] data, int[] pos) {
+        int len = (int) Utils.readVarint(data, pos);
+        String result = new String(data, pos[0], len, StandardCharsets.UTF_8);
+        pos[0] += len;
+        return result;
+    }
+
+    /**
+     * Read a raw id from DATA at POS[0].
+     * @return the id as a hexadecimal numeral.
+     */
+
+    private static String readId(byte[] data, int[] pos) {
+        String result = Utils.toHex(
+            Arrays.copyOfRange(data, pos[0], pos[0] + ID_BYTES));
+        pos[0] += ID_BYTES;
+        return result;
     }
 
     /**
      * remove comm.
      * @param name take in name.
+     * @param stage the staging area
      */
 
-    public void removeCommit(String name) {
-        if (!stage.containsKey(name) && !files.containsKey(name)) {
+    public void removeCommit(String name, Stage stage) {
+        boolean tracked = getFile(name) != null;
+        if (!stage.getAdded().containsKey(name) && !tracked) {
             throw new GitletException("No reason to remove the file.");
         }
-        stage.remove(name);
-        if (files.containsKey(name)) {
-            untrackedFiles.add(name);
-            Utils.restrictedDelete(name);
+        if (tracked) {
+            stage.remove(name);
+            Utils.deleteWorkingFile(name);
+        } else {
+            stage.unstage(name);
         }
     }
 
@@ -196,31 +490,108 @@ public class Commits implements Serializable {
     }
 
     /**
-     * get the log of the commits, HASH.
+     * get the log of the commits, HASH, written to OUT.
      * @param hash take in has
+     * @param out where the log goes
      */
 
-    public void log(String hash) {
-        System.out.println(
+    public void log(String hash, PrintStream out) {
+        out.println(
             "commit " + hash);
 
 
         if (getOtherParent() != null) {
 
-            System.out.println(
-                "Merge: " + getParent().substring(0, 7)
-                + " " + getOtherParent().substring(0, 7));
+            out.println(
+                "Merge: " + getParent().substring(0, SHORT_ID)
+                + " " + getOtherParent().substring(0, SHORT_ID));
 
         }
-        SimpleDateFormat time =
 
-            new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
 
+        out.println("Date: " + date());
 
-        System.out.println("Date: " + time.format(getTimeCommit()));
 
+        out.println(logMessage());
+    }
+
+    /**
+     * Expand FORMAT for this commit, whose id is HASH.  The placeholders
+     * are %H (the id), %h (its abbreviation), %P and %p (the parent ids,
+     * full and abbreviated, separated by a space), %ad (the date as in
+     * log), %s (the first line of the message), %B (the whole message),
+     * %n (a newline) and %% (a percent sign); anything else is copied.
+     * @param hash the id of this commit
+     * @param format the format
+     * @return the expansion.
+     */
 
-        System.out.println(logMessage());
+    public String format(String hash, String format) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < format.length(); i += 1) {
+            char c = format.charAt(i);
+            String spec = c == '%' && i + 1 < format.length()
+                ? format.substring(i + 1, Math.min(i + 3, format.length()))
+                : "";
+            if (spec.startsWith("ad")) {
+                result.append(date());
+                i += 2;
+                continue;
+            }
+            String value = spec.isEmpty() ? null : expand(hash, spec.charAt(0));
+            if (value == null) {
+                result.append(c);
+            } else {
+                result.append(value);
+                i += 1;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * The value of the one-letter placeholder SPEC of format for this
+     * commit, whose id is HASH.
+     * @return the value, or null if SPEC is not a placeholder.
+     */
+
+    private String expand(String hash, char spec) {
+        switch (spec) {
+        case 'H':
+            return hash;
+        case 'h':
+            return hash.substring(0, SHORT_ID);
+        case 'P':
+        case 'p':
+            StringBuilder ids = new StringBuilder();
+            for (String p : new String[] {getParent(), getOtherParent()}) {
+                if (p != null) {
+                    ids.append(ids.length() == 0 ? "" : " ")
+                        .append(spec == 'P' ? p : p.substring(0, SHORT_ID));
+                }
+            }
+            return ids.toString();
+        case 's':
+            int end = logMessage().indexOf('\n');
+            return end < 0 ? logMessage() : logMessage().substring(0, end);
+        case 'B':
+            return logMessage();
+        case 'n':
+            return "\n";
+        case '%':
+            return "%";
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * The time of this commit as shown by log.
+     * @return the formatted time.
+     */
+
+    public String date() {
+        return DATE_FORMAT.format(getTimeCommit().toInstant());
     }
 
 
@@ -261,27 +632,42 @@ public class Commits implements Serializable {
      * @return HASHMAP
      */
     public HashMap<String, String> getFiles() {
-
+        if (files == null) {
+            files = Tree.flatten(_tree);
+            if (_id != null) {
+                CommitCache.get().reweigh(_id, this);
+            }
+        }
         return files;
     }
 
     /**
-     * makes the getStage STRING, STRING files public.
-     * @return HASHMAP
+     * The blob of one file of this commit, found by walking the tree
+     * along NAME unless the files are already in memory.
+     * @param name the path of the file
+     * @return its blob id, or null if the commit has no such file.
      */
-
-    public HashMap<String, String> getStage() {
-
-        return stage;
+    public String getFile(String name) {
+        if (files != null || _tree == null) {
+            return getFiles().get(name);
+        }
+        return Tree.lookup(_tree, name);
     }
 
     /**
-     * makes the untrackedfile STRING public.
-     * @return ARRAYLIST
+     * Whether the files of this commit are in memory.
+     * @return false iff getFiles would first read them from the tree.
      */
+    public boolean filesLoaded() {
+        return files != null;
+    }
 
-    public ArrayList<String> getUntrackedFiles() {
-        return untrackedFiles;
+    /**
+     * The root tree of this commit.
+     * @return its id, or null if the files are stored inline.
+     */
+    public String getTree() {
+        return _tree;
     }
 
     /**
@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * An opt-in server that runs Gitlet commands on behalf of clients, so
+ * that scripts issuing many commands start one JVM rather than one per
+ * command, and decoded commits and the stat cache stay loaded between
+ * commands.  Started with "java gitlet.Main --daemon" in a repository,
+ * it listens on the Unix domain socket .gitlet/daemon.sock and serves
+ * requests one at a time until sent "--stop".  Main forwards its
+ * arguments there whenever the socket exists, and runs the command
+ * itself if no daemon answers.
+ *
+ * A request is the client's working directory, the number of
+ * arguments, and the arguments, each string an int length and UTF-8
+ * bytes.  The reply is a sequence of frames, each a tag byte: OUT or ERR
+ * followed by an int length and that many bytes of output, then EXIT
+ * followed by the int exit status.  A daemon only serves the directory
+ * it was started in, since all repository paths are relative to it; it
+ * answers any other client with REFUSED.
+ *
+ * @author Mohammad Khizar
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET_FILE = new File(".gitlet/daemon.sock");
+
+    /** Argument that makes Main start a daemon. */
+    static final String START = "--daemon";
+    /** Argument that makes the daemon exit. */
+    static final String STOP = "--stop";
+
+    /** Frame of standard output. */
+    private static final byte OUT = 'O';
+    /** Frame of standard error. */
+    private static final byte ERR = 'E';
+    /** Frame ending a reply with the exit status. */
+    private static final byte EXIT = 'X';
+    /** Reply to a client in another directory. */
+    private static final byte REFUSED = 'R';
+
+    /** Serve requests on SOCKET_FILE until told to stop. */
+    static void serve() {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new GitletException("Not in an initialized "
+                + "Gitlet directory.");
+        }
+        String root = workingDirectory();
+        Command command = new Command();
+        PrintStream stdout = System.out, stderr = System.err;
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(SOCKET_FILE.toPath());
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            stdout.println("Serving " + root + " on " + SOCKET_FILE + ".");
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(command, root, client);
+                } catch (IOException excp) {
+                    stderr.println("Lost client: " + excp.getMessage());
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Run the request from CLIENT through COMMAND if it comes from
+     *  directory ROOT.  Returns false iff the daemon should stop. */
+    private static boolean handle(Command command, String root,
+                                  SocketChannel client) throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(client)));
+        String cwd = readString(in);
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readString(in);
+        }
+        if (!cwd.equals(root)) {
+            out.writeByte(REFUSED);
+            out.flush();
+            return true;
+        }
+        if (args.length == 1 && args[0].equals(STOP)) {
+            out.writeByte(EXIT);
+            out.writeInt(0);
+            out.flush();
+            return false;
+        }
+        PrintStream cmdOut = new PrintStream(new BufferedOutputStream(
+            new FrameStream(out, OUT), Utils.BUFFER_SIZE),
+            false, StandardCharsets.UTF_8);
+        PrintStream cmdErr = new PrintStream(new BufferedOutputStream(
+            new FrameStream(out, ERR), Utils.BUFFER_SIZE),
+            false, StandardCharsets.UTF_8);
+        System.setOut(cmdOut);
+        System.setErr(cmdErr);
+        int status = 0;
+        try {
+            command.parseLine(args);
+        } catch (GitletException excp) {
+            cmdOut.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            StringWriter trace = new StringWriter();
+            excp.printStackTrace(new PrintWriter(trace));
+            cmdErr.print(trace);
+            status = 1;
+        }
+        cmdOut.flush();
+        cmdErr.flush();
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+        return true;
+    }
+
+    /** Send ARGS to the daemon serving this directory and copy its output
+     *  to System.out and System.err.  Returns the exit status, or null if
+     *  no daemon took the request, in which case the caller should run
+     *  the command itself. */
+    static Integer forward(String... args) {
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException | UnsupportedOperationException excp) {
+            return null;
+        }
+        try (server) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(server)));
+            writeString(out, workingDirectory());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                writeString(out, arg);
+            }
+            out.flush();
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(server));
+            while (true) {
+                byte tag = in.readByte();
+                if (tag == REFUSED) {
+                    return null;
+                } else if (tag == EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                (tag == ERR ? System.err : System.out).write(data);
+            }
+        } catch (IOException excp) {
+            System.err.println("Lost connection to the Gitlet daemon.");
+            return 1;
+        }
+    }
+
+    /** Return the canonical path of the working directory. */
+    private static String workingDirectory() {
+        try {
+            return new File(".").getCanonicalPath();
+        } catch (IOException excp) {
+            return new File(".").getAbsolutePath();
+        }
+    }
+
+    /** Write S to OUT as an int length and UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Read a string written by writeString from IN. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** An output stream sending what is written to it as frames of one
+     *  tag. */
+    private static class FrameStream extends OutputStream {
+
+        /** A stream sending frames tagged TAG to OUT. */
+        FrameStream(DataOutputStream out, byte tag) {
+            _out = out;
+            _tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeByte(_tag);
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** Where frames go. */
+        private final DataOutputStream _out;
+        /** Tag of the frames. */
+        private final byte _tag;
+    }
+}
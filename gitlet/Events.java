@@ -0,0 +1,118 @@
+package gitlet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for Gitlet operations, so that a recording
+ * of a slow command shows which objects and files it spent its time on.
+ * All are disabled by default; enable them in the recording settings,
+ * for example
+ *
+ *     java -XX:StartFlightRecording:filename=gitlet.jfr,settings=FILE
+ *         gitlet.Main merge other
+ *
+ * with FILE a copy of default.jfc in which the gitlet.* events are set
+ * enabled, or from JDK Mission Control.  A disabled event is never
+ * committed, and its fields are only filled in after shouldCommit, so
+ * the instrumented code does no extra work.
+ *
+ * @author Mohammad Khizar
+ */
+class Events {
+
+    /** A command run by Command.parseLine. */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    @Enabled(false)
+    @StackTrace(false)
+    static class CommandEvent extends Event {
+        /** The command's name. */
+        @Label("Command")
+        String command;
+
+        /** Its operands, separated by spaces. */
+        @Label("Operands")
+        String operands;
+    }
+
+    /** A commit looked up by Commits.getCommit. */
+    @Name("gitlet.CommitRead")
+    @Label("Gitlet Commit Read")
+    @Category("Gitlet")
+    @Enabled(false)
+    @StackTrace(false)
+    static class CommitReadEvent extends Event {
+        /** The commit's id. */
+        @Label("Id")
+        String id;
+
+        /** Whether it came from the commit cache. */
+        @Label("Cached")
+        boolean cached;
+
+        /** Size of its stored form, or 0 if cached. */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** Time spent decoding it. */
+        @Label("Decode Time")
+        @Timespan
+        long decodeTime;
+    }
+
+    /** A blob read from or written to the object store. */
+    @Name("gitlet.Blob")
+    @Label("Gitlet Blob")
+    @Category("Gitlet")
+    @Enabled(false)
+    @StackTrace(false)
+    static class BlobEvent extends Event {
+        /** "read", "write" or "checkout". */
+        @Label("Operation")
+        String operation;
+
+        /** The blob's id. */
+        @Label("Id")
+        String id;
+
+        /** The working file written or read, if any. */
+        @Label("Path")
+        String path;
+
+        /** Size of the contents. */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /** A pass over working files: listing them, or hashing them. */
+    @Name("gitlet.WorkingTreeScan")
+    @Label("Gitlet Working Tree Scan")
+    @Category("Gitlet")
+    @Description("Listing or hashing the files of the working directory")
+    @Enabled(false)
+    @StackTrace(false)
+    static class ScanEvent extends Event {
+        /** "list" or "hash". */
+        @Label("Kind")
+        String kind;
+
+        /** Number of files listed, or given to hash. */
+        @Label("Files")
+        int files;
+
+        /** Number of files actually read, when hashing. */
+        @Label("Files Read")
+        int filesRead;
+    }
+}
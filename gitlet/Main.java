@@ -11,9 +11,27 @@ public class Main {
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
-     * <COMMAND> <OPERAND> ....
+     * <COMMAND> <OPERAND> ....  If a Daemon is serving the repository,
+     * the command is run there.  java gitlet.Main --daemon starts one,
+     * and java gitlet.Main --batch runs commands read from the standard
+     * input.  java gitlet.Main --trace COMMAND ... prints a Trace of the
+     * command to the standard error.
      */
     public static void main(String... args) throws IOException {
+        if (args.length == 1 && args[0].equals(Daemon.START)) {
+            Daemon.serve();
+            return;
+        }
+        if (args.length == 1 && args[0].equals(Batch.START)) {
+            Batch.run(System.in);
+            return;
+        }
+        if (Daemon.SOCKET_FILE.exists()) {
+            Integer status = Daemon.forward(args);
+            if (status != null) {
+                System.exit(status);
+            }
+        }
         Command control = new Command();
         try {
             control.parseLine(args);
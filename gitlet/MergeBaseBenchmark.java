@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+
+/**
+ * Times merge-base queries over a deep, merge-heavy history, comparing
+ * CommitGraph.mergeBase with legacySplit, the first-parent walk merge
+ * used before.  Run it in an empty directory:
+ *
+ *     java gitlet.MergeBaseBenchmark [COMMITS [MERGE-EVERY]]
+ *
+ * It builds a repository there through Command, with a side branch
+ * merged back into master every MERGE-EVERY commits, and then a second
+ * branch forked from deep in the history.
+ *
+ * @author Mohammad Khizar
+ */
+public class MergeBaseBenchmark {
+
+    /** Number of queries per implementation, both to warm up and
+     *  timed. */
+    private static final int ROUNDS = 50;
+
+    /** Build the repository and print timings, per ARGS. */
+    public static void main(String... args) {
+        if (new File(".gitlet").exists()) {
+            System.err.println("Run in an empty directory.");
+            System.exit(1);
+        }
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int every = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Command c = new Command();
+        c.parseLine("init");
+        String fork = null;
+        for (int i = 1; i <= commits; i += 1) {
+            if (i % every == 0) {
+                c.parseLine("branch", "side" + i);
+                c.parseLine("checkout", "side" + i);
+                commitFile(c, "side" + i + ".txt", i);
+                c.parseLine("checkout", "master");
+                commitFile(c, "m.txt", i);
+                c.parseLine("merge", "side" + i);
+            } else {
+                commitFile(c, "m.txt", i);
+            }
+            if (i == commits / 10) {
+                c.parseLine("branch", "other");
+                fork = c.getHashedHead();
+            }
+        }
+        c.parseLine("checkout", "other");
+        commitFile(c, "o.txt", 0);
+        String other = c.getHashedHead();
+        c.parseLine("checkout", "master");
+        String head = c.getHashedHead();
+        System.setOut(out);
+
+        CommitGraph.write();
+        String legacy = null, engine = null;
+        for (int k = 0; k < ROUNDS; k += 1) {
+            legacySplit(head, other);
+            CommitGraph.load().mergeBase(head, other);
+        }
+        long start = System.nanoTime();
+        for (int k = 0; k < ROUNDS; k += 1) {
+            legacy = legacySplit(head, other);
+        }
+        long legacyTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k = 0; k < ROUNDS; k += 1) {
+            engine = CommitGraph.load().mergeBase(head, other);
+        }
+        long engineTime = System.nanoTime() - start;
+
+        out.printf("history: %d commits, merge every %d, fork at %s%n",
+                   CommitGraph.load().generation(head), every,
+                   fork.substring(0, 7));
+        out.printf("first-parent walk: %8.3f ms/query -> %s%n",
+                   legacyTime / 1e6 / ROUNDS, legacy.substring(0, 7));
+        out.printf("commit-graph walk: %8.3f ms/query -> %s%n",
+                   engineTime / 1e6 / ROUNDS, engine.substring(0, 7));
+    }
+
+    /** Write a file NAME with contents based on N, add and commit it
+     *  through C. */
+    private static void commitFile(Command c, String name, int n) {
+        Utils.writeContents(new File(name), name + " " + n + "\n");
+        c.parseLine("add", name);
+        c.parseLine("commit", name + " " + n);
+    }
+
+    /** The split point of HEAD and OTHER as computed before the
+     *  commit graph: OTHER's first ancestor whose id appears among the
+     *  first-parent ancestors of HEAD, each commit read from the object
+     *  store. */
+    static String legacySplit(String head, String other) {
+        HashSet<String> purana = new HashSet<>();
+        String heash = head;
+        while (heash != null) {
+            heash = Commits.getCommit(heash).parentRef();
+            purana.add(heash);
+        }
+        String othas = other, last = other;
+        while (othas != null) {
+            if (purana.contains(othas)) {
+                return othas;
+            }
+            last = othas;
+            othas = Commits.getCommit(othas).parentRef();
+        }
+        return last;
+    }
+}
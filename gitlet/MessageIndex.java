@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * The message index (.gitlet/messages): the message of every commit,
+ * so that find need not read commit objects.  The file is a log of
+ * records, each a raw commit id, the message as length-prefixed UTF-8
+ * and a CRC-32 of both; commit and merge append one record.  Loading
+ * replays it into a map from exact message to ids and an inverted map
+ * from each word to the ids whose message contains it.  A repository
+ * without the file, or whose file holds a record cut short by a crash,
+ * so that a record fails its check, has it rebuilt from the object
+ * store the first time it is needed.  Records are synced with the
+ * commits they describe, by Utils.sync.
+ *
+ * @author Mohammad Khizar
+ */
+class MessageIndex {
+
+    /** The file holding the index. */
+    static final File INDEX_FILE = new File(".gitlet/messages");
+
+    /** Magic number at the start of the index. */
+    private static final int MAGIC = 0x474d4932;
+
+    /** Commit ids by exact message. */
+    private final HashMap<String, TreeSet<String>> _exact = new HashMap<>();
+    /** Commit ids by word of their message. */
+    private final HashMap<String, TreeSet<String>> _words = new HashMap<>();
+
+    /** Return the message index of the current repository, rebuilding
+     *  it first if there is none. */
+    static MessageIndex load() {
+        if (!INDEX_FILE.isFile()) {
+            rebuild();
+        }
+        MessageIndex index = read();
+        if (index == null) {
+            rebuild();
+            index = read();
+        }
+        return index;
+    }
+
+    /** Return the index read from INDEX_FILE, or null if it is in an
+     *  older format or a record is incomplete or fails its check. */
+    private static MessageIndex read() {
+        MessageIndex index = new MessageIndex();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                 Files.newInputStream(INDEX_FILE.toPath())))) {
+            long left = Files.size(INDEX_FILE.toPath()) - 4;
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            while (left > 0) {
+                in.readFully(id);
+                int length = in.readInt();
+                left -= id.length + 4 + 4;
+                if (length < 0 || length > left) {
+                    return null;
+                }
+                byte[] text = new byte[length];
+                in.readFully(text);
+                left -= length;
+                if (in.readInt() != checksum(id, text)) {
+                    return null;
+                }
+                index.put(Utils.toHex(id),
+                          new String(text, StandardCharsets.UTF_8));
+            }
+        } catch (EOFException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Record that commit ID has MESSAGE.  Does nothing if there is no
+     *  index yet, since it will be rebuilt with ID when first loaded. */
+    static void add(String id, String message) {
+        if (!INDEX_FILE.isFile()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(INDEX_FILE, true)))) {
+            writeRecord(out, id, message);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(INDEX_FILE);
+    }
+
+    /** Rewrite the index from every commit in the object store, read in
+     *  parallel.  Returns the number of commits indexed. */
+    static int rebuild() {
+        List<String> ids = ObjectStore.commitIds();
+        File tmp = new File(INDEX_FILE.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                Commits.scan(ids, false, (id, commit) -> {
+                        try {
+                            writeRecord(out, id, commit.logMessage());
+                        } catch (IOException excp) {
+                            throw new IllegalArgumentException(
+                                excp.getMessage());
+                        }
+                    });
+            }
+            Utils.replace(tmp.toPath(), INDEX_FILE.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(INDEX_FILE);
+        return ids.size();
+    }
+
+    /** Return the ids of the commits whose message is MESSAGE, in
+     *  order. */
+    Set<String> exact(String message) {
+        return Collections.unmodifiableSet(
+            _exact.getOrDefault(message, new TreeSet<>()));
+    }
+
+    /** Return the ids of the commits whose message contains every word
+     *  of QUERY, ignoring case, in order.  A query without words matches
+     *  nothing. */
+    Set<String> words(String query) {
+        TreeSet<String> result = null;
+        for (String word : tokens(query)) {
+            TreeSet<String> ids = _words.getOrDefault(word, new TreeSet<>());
+            if (result == null) {
+                result = new TreeSet<>(ids);
+            } else {
+                result.retainAll(ids);
+            }
+        }
+        return result == null ? Collections.emptySet()
+            : Collections.unmodifiableSet(result);
+    }
+
+    /** Add commit ID with MESSAGE to the maps. */
+    private void put(String id, String message) {
+        _exact.computeIfAbsent(message, x -> new TreeSet<>()).add(id);
+        for (String word : tokens(message)) {
+            _words.computeIfAbsent(word, x -> new TreeSet<>()).add(id);
+        }
+    }
+
+    /** Return the distinct words of TEXT, lower-cased: its maximal runs
+     *  of letters and digits. */
+    static Set<String> tokens(String text) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inWord = i < text.length()
+                && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Write the record for commit ID with MESSAGE to OUT. */
+    private static void writeRecord(DataOutputStream out, String id,
+                                    String message) throws IOException {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        byte[] raw = Utils.fromHex(id);
+        out.write(raw);
+        out.writeInt(text.length);
+        out.write(text);
+        out.writeInt(checksum(raw, text));
+    }
+
+    /** Return the CRC-32 of the raw commit id ID and message TEXT. */
+    private static int checksum(byte[] id, byte[] text) {
+        CRC32 crc = new CRC32();
+        crc.update(id);
+        crc.update(text);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,467 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Lookup of blobs, trees and commits by id.  An object is either loose
+ * or in the pack; loose copies take precedence.  Loose objects are
+ * fanned out by the first two hexadecimal digits of their ids, a blob
+ * ABCDEF... in .gitlet/objects/blobs/AB/CDEF... and a commit likewise
+ * under .gitlet/objects/commits, and a tree under .gitlet/objects/trees,
+ * so that no directory grows with the whole history.  A loose object is
+ * stored zlib-compressed, its contents preceded by a header of the form
+ * "TYPE SIZE\0".  Objects written before compression was introduced
+ * are stored raw, and objects written before the fan-out layout sit
+ * flat in .gitlet/ (blobs) and .gitlet/logcommits/ (commits); both are
+ * still read, and migrate() moves the latter.  Trees postdate both
+ * changes and only exist in the current form.
+ *
+ * @author Mohammad Khizar
+ */
+class ObjectStore {
+
+    /** Directory of loose objects. */
+    static final File OBJECT_DIR = new File(".gitlet/objects");
+    /** Directory of loose blobs. */
+    static final File BLOB_DIR = new File(OBJECT_DIR, "blobs");
+    /** Directory of loose commits. */
+    static final File COMMIT_DIR = new File(OBJECT_DIR, "commits");
+    /** Directory of loose trees. */
+    static final File TREE_DIR = new File(OBJECT_DIR, "trees");
+    /** Flat directory of loose blobs, before the fan-out layout. */
+    static final File LEGACY_BLOB_DIR = new File(".gitlet");
+    /** Flat directory of loose commits, before the fan-out layout. */
+    static final File LEGACY_COMMIT_DIR = new File(".gitlet/logcommits");
+
+    /** First byte of a zlib stream using the default window size. */
+    private static final byte ZLIB_HEADER = 0x78;
+    /** Longest header of a loose object. */
+    private static final int MAX_HEADER = 32;
+    /** Number of hexadecimal digits naming a fan-out directory. */
+    private static final int FAN_DIGITS = 2;
+
+    /** Return the file holding loose blob HASH. */
+    static File looseBlobFile(String hash) {
+        return looseFile(hash, Pack.BLOB);
+    }
+
+    /** Return the file holding loose commit HASH. */
+    static File looseCommitFile(String hash) {
+        return looseFile(hash, Pack.COMMIT);
+    }
+
+    /** Return the contents of blob HASH. */
+    static byte[] readBlob(String hash) {
+        Events.BlobEvent event = new Events.BlobEvent();
+        event.begin();
+        byte[] contents = read(hash, Pack.BLOB);
+        if (contents == null) {
+            throw Utils.error("Missing blob %s.", hash);
+        }
+        blobEvent(event, "read", hash, null, contents.length);
+        return contents;
+    }
+
+    /** Commit EVENT, begun before a blob operation, if it is enabled,
+     *  recording OPERATION on blob HASH of SIZE bytes, with working file
+     *  FILE or null. */
+    private static void blobEvent(Events.BlobEvent event, String operation,
+                                  String hash, File file, long size) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.id = hash;
+            event.path = file == null ? null : file.getPath();
+            event.bytes = size;
+            event.commit();
+        }
+    }
+
+    /** Return the stored form of commit HASH, or null if there is no
+     *  such commit. */
+    static byte[] readCommit(String hash) {
+        return read(hash, Pack.COMMIT);
+    }
+
+    /** Return the contents of object HASH of type TYPE, loose or packed,
+     *  or null if there is no such object. */
+    static byte[] read(String hash, byte type) {
+        long start = Trace.start();
+        File loose = looseFile(hash, type);
+        byte[] result =
+            loose.isFile() ? readLoose(loose, type) : Pack.read(hash, type);
+        Trace.end(Trace.Op.OBJECT_READ, start,
+                  result == null ? 0 : result.length);
+        return result;
+    }
+
+    /** Store CONTENTS as loose object HASH of type TYPE, replacing any
+     *  copy in the flat layout.  The object is written to a temporary
+     *  file and renamed into place, and reaches the disk at the next
+     *  Utils.sync. */
+    static void write(String hash, byte type, byte[] contents) {
+        long start = Trace.start();
+        Path tmp = null;
+        try {
+            dir(type).mkdirs();
+            tmp = Files.createTempFile(dir(type).toPath(), typeName(type),
+                                       ".tmp");
+            try (OutputStream str = new DeflaterOutputStream(
+                     Files.newOutputStream(tmp))) {
+                str.write(header(type, contents.length));
+                str.write(contents);
+            }
+            install(tmp, fanOutFile(hash, type));
+            tmp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+        if (legacyDir(type) != null) {
+            new File(legacyDir(type), hash).delete();
+        }
+        Trace.end(Trace.Op.OBJECT_WRITE, start, contents.length);
+    }
+
+    /** Rename the finished object TMP into place as FILE, making its
+     *  fan-out directory if need be, and record both for the next
+     *  Utils.sync. */
+    private static void install(Path tmp, File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir.mkdir()) {
+            Utils.syncLater(dir);
+        }
+        Utils.replace(tmp, file.toPath());
+        Utils.syncLater(file);
+    }
+
+    /** Return the file holding loose object HASH of type TYPE: its place
+     *  in the fan-out layout, unless only a flat copy exists. */
+    static File looseFile(String hash, byte type) {
+        File file = fanOutFile(hash, type);
+        if (!file.isFile() && legacyDir(type) != null) {
+            File legacy = new File(legacyDir(type), hash);
+            if (legacy.isFile()) {
+                return legacy;
+            }
+        }
+        return file;
+    }
+
+    /** Return the place of object HASH of type TYPE in the fan-out
+     *  layout. */
+    private static File fanOutFile(String hash, byte type) {
+        return new File(new File(dir(type), hash.substring(0, FAN_DIGITS)),
+                        hash.substring(FAN_DIGITS));
+    }
+
+    /** Return the directory of loose objects of type TYPE. */
+    private static File dir(byte type) {
+        if (type == Pack.COMMIT) {
+            return COMMIT_DIR;
+        } else if (type == Pack.TREE) {
+            return TREE_DIR;
+        } else {
+            return BLOB_DIR;
+        }
+    }
+
+    /** Return the flat directory of loose objects of type TYPE, or null
+     *  if objects of that type were never stored flat. */
+    private static File legacyDir(byte type) {
+        if (type == Pack.COMMIT) {
+            return LEGACY_COMMIT_DIR;
+        } else if (type == Pack.TREE) {
+            return null;
+        } else {
+            return LEGACY_BLOB_DIR;
+        }
+    }
+
+    /** Return the header of a loose object of type TYPE and SIZE
+     *  bytes. */
+    static byte[] header(byte type, long size) {
+        return (typeName(type) + " " + size + "\0")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the name of TYPE used in object headers. */
+    static String typeName(byte type) {
+        if (type == Pack.COMMIT) {
+            return "commit";
+        } else if (type == Pack.TREE) {
+            return "tree";
+        } else {
+            return "blob";
+        }
+    }
+
+    /** Return true iff object HASH of type TYPE is stored, loose or
+     *  packed. */
+    static boolean contains(String hash, byte type) {
+        return looseFile(hash, type).isFile() || Pack.contains(hash, type);
+    }
+
+    /** Store the contents of FILE as a loose blob and return its id.  The
+     *  contents are hashed and compressed in one pass through a fixed-size
+     *  buffer into a temporary file, which is then renamed into place, so
+     *  FILE may be of any size and need not be text. */
+    static String writeBlob(File file) {
+        Events.BlobEvent event = new Events.BlobEvent();
+        event.begin();
+        long start = Trace.start();
+        long size = file.length();
+        Path tmp = null;
+        try {
+            BLOB_DIR.mkdirs();
+            tmp = Files.createTempFile(BLOB_DIR.toPath(), "blob", ".tmp");
+            MessageDigest md = Utils.sha1Digest();
+            long total = 0;
+            try (InputStream in = Files.newInputStream(file.toPath());
+                 OutputStream out = new DeflaterOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmp),
+                                              Utils.BUFFER_SIZE))) {
+                out.write(header(Pack.BLOB, size));
+                byte[] buf = new byte[Utils.BUFFER_SIZE];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    md.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                    total += n;
+                }
+            }
+            if (total != size) {
+                throw Utils.error("File %s changed while being added.",
+                                  file.getName());
+            }
+            String hash = Utils.toHex(md.digest());
+            if (!contains(hash, Pack.BLOB)) {
+                install(tmp, fanOutFile(hash, Pack.BLOB));
+            }
+            Trace.end(Trace.Op.BLOB_WRITE, start, size);
+            blobEvent(event, "write", hash, file, size);
+            return hash;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+    }
+
+    /** Write the contents of blob HASH to FILE, creating its directory
+     *  if need be and streaming the contents when the blob is loose.  An
+     *  existing FILE is rewritten in place, keeping its permissions. */
+    static void checkout(String hash, File file) {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        Events.BlobEvent event = new Events.BlobEvent();
+        event.begin();
+        long start = Trace.start();
+        File loose = looseBlobFile(hash);
+        if (!loose.isFile()) {
+            byte[] contents = readBlob(hash);
+            Utils.writeContents(file, contents);
+            Trace.end(Trace.Op.CHECKOUT, start, contents.length);
+            blobEvent(event, "checkout", hash, file, contents.length);
+            return;
+        }
+        try (InputStream in = openLoose(loose, Pack.BLOB);
+             OutputStream out = Files.newOutputStream(file.toPath())) {
+            long size = in.transferTo(out);
+            Trace.end(Trace.Op.CHECKOUT, start, size);
+            blobEvent(event, "checkout", hash, file, size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the loose object of type TYPE in FILE. */
+    private static byte[] readLoose(File file, byte type) {
+        try (InputStream in = openLoose(file, type)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream of the contents of the loose object of type TYPE
+     *  in FILE, which is either compressed with a header or, if written
+     *  by an older Gitlet, raw. */
+    static InputStream openLoose(File file, byte type)
+        throws IOException {
+        InputStream raw = new BufferedInputStream(
+            Files.newInputStream(file.toPath()), Utils.BUFFER_SIZE);
+        raw.mark(2);
+        int b0 = raw.read(), b1 = raw.read();
+        raw.reset();
+        if (b0 != ZLIB_HEADER || b1 < 0 || ((b0 << 8) | b1) % 31 != 0) {
+            return raw;
+        }
+        InputStream str = new InflaterInputStream(raw);
+        try {
+            StringBuilder head = new StringBuilder();
+            for (int c = str.read(); c > 0 && head.length() < MAX_HEADER;
+                 c = str.read()) {
+                head.append((char) c);
+            }
+            String[] parts = head.toString().split(" ");
+            if (parts.length == 2 && parts[0].equals(typeName(type))
+                && parts[1].matches("[0-9]+")) {
+                return str;
+            }
+        } catch (IOException excp) {
+            /* Not compressed after all. */
+        }
+        str.close();
+        return new BufferedInputStream(Files.newInputStream(file.toPath()),
+                                       Utils.BUFFER_SIZE);
+    }
+
+    /** Return the full id of the one commit whose id starts with
+     *  PREFIX, which may be of any length.  Throws a GitletException if
+     *  there is no such commit or more than one. */
+    static String resolveCommit(String prefix) {
+        List<String> found = commitsWithPrefix(prefix, 2);
+        if (found.isEmpty()) {
+            throw new GitletException("No commit with that id exists.");
+        } else if (found.size() > 1) {
+            throw Utils.error("Commit id %s is ambiguous.", prefix);
+        }
+        return found.get(0);
+    }
+
+    /** Return the ids of up to LIMIT commits, loose or packed, whose ids
+     *  start with PREFIX, in order.  A PREFIX that is empty or not
+     *  hexadecimal matches nothing. */
+    static List<String> commitsWithPrefix(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{1," + Utils.UID_LENGTH + "}")) {
+            return new ArrayList<>();
+        }
+        if (prefix.length() == Utils.UID_LENGTH) {
+            if (contains(prefix, Pack.COMMIT)) {
+                found.add(prefix);
+            }
+            return new ArrayList<>(found);
+        }
+        found.addAll(Pack.withPrefix(prefix, Pack.COMMIT, limit));
+        found.addAll(looseIds(Pack.COMMIT, prefix));
+        List<String> result = new ArrayList<>(found);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** Return the ids of all commits, loose or packed, in order. */
+    static List<String> commitIds() {
+        TreeSet<String> ids = new TreeSet<>(Pack.ids(Pack.COMMIT));
+        ids.addAll(looseCommitIds());
+        return new ArrayList<>(ids);
+    }
+
+    /** Return the ids of all loose commits, in order. */
+    static List<String> looseCommitIds() {
+        return new ArrayList<>(looseIds(Pack.COMMIT, ""));
+    }
+
+    /** Return the ids of all loose blobs, in order. */
+    static List<String> looseBlobIds() {
+        return new ArrayList<>(looseIds(Pack.BLOB, ""));
+    }
+
+    /** Return the ids of all loose trees, in order. */
+    static List<String> looseTreeIds() {
+        return new ArrayList<>(looseIds(Pack.TREE, ""));
+    }
+
+    /** Return the ids of the loose objects of type TYPE that start with
+     *  PREFIX, in order.  Only the fan-out directories that can hold
+     *  such ids are listed, and the flat directory if it still exists. */
+    private static TreeSet<String> looseIds(byte type, String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        String[] subdirs = dir(type).list(
+            (d, name) -> name.length() == FAN_DIGITS
+                && (name.startsWith(prefix) || prefix.startsWith(name)));
+        for (String sub : subdirs == null ? new String[0] : subdirs) {
+            String[] names = new File(dir(type), sub).list();
+            for (String name : names == null ? new String[0] : names) {
+                String id = sub + name;
+                if (id.startsWith(prefix) && isId(id)) {
+                    result.add(id);
+                }
+            }
+        }
+        String[] flat = legacyDir(type) == null ? null : legacyDir(type).list(
+            (d, name) -> name.startsWith(prefix) && isId(name));
+        if (flat != null) {
+            result.addAll(Arrays.asList(flat));
+        }
+        return result;
+    }
+
+    /** Move every loose object still in the flat layout to its fan-out
+     *  directory, and remove the flat commit directory.  Returns the
+     *  number of objects moved. */
+    static int migrate() {
+        int count = 0;
+        for (byte type : new byte[] { Pack.COMMIT, Pack.BLOB }) {
+            String[] flat = legacyDir(type).list((d, name) -> isId(name));
+            for (String id : flat == null ? new String[0] : flat) {
+                File dest = fanOutFile(id, type);
+                dest.getParentFile().mkdirs();
+                try {
+                    Files.move(new File(legacyDir(type), id).toPath(),
+                               dest.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                count += 1;
+            }
+        }
+        LEGACY_COMMIT_DIR.delete();
+        return count;
+    }
+
+    /** Remove the fan-out directories left empty, as after a repack. */
+    static void removeEmptyDirs() {
+        for (File dir : new File[] { COMMIT_DIR, TREE_DIR, BLOB_DIR }) {
+            File[] subdirs = dir.listFiles(File::isDirectory);
+            for (File sub : subdirs == null ? new File[0] : subdirs) {
+                sub.delete();
+            }
+        }
+    }
+
+    /** Return true iff NAME is a full hexadecimal object id. */
+    static boolean isId(String name) {
+        if (name.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
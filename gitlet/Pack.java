@@ -0,0 +1,823 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A single packfile holding blobs, trees and commits, plus its index.
+ *
+ * The pack (.gitlet/pack/NAME.pack) is a sequence of entries, each
+ * a fixed 18-byte header (type, delta flag, base offset, inflated
+ * length, stored length) followed by deflated data.  A delta entry
+ * stores the instructions that rebuild the object from the entry at
+ * its base offset.  The index (.gitlet/pack/NAME.idx) holds a
+ * 256-entry fan-out table, the sorted raw object ids, one type byte
+ * per object and the pack offset of each object.  The file
+ * .gitlet/pack/current holds the NAME of the pair in use, so that
+ * repack can install a new pair with one atomic rename of that file;
+ * a repository packed before it existed uses objects.pack and
+ * objects.idx.
+ *
+ * @author Mohammad Khizar
+ */
+class Pack {
+
+    /** Type byte of a commit. */
+    static final byte COMMIT = 1;
+    /** Type byte of a blob. */
+    static final byte BLOB = 2;
+    /** Type byte of a tree. */
+    static final byte TREE = 3;
+
+    /** Directory holding the pack and its index. */
+    static final File PACK_DIR = new File(".gitlet/pack");
+    /** The file naming the pack and index in use. */
+    static final File CURRENT_FILE = new File(PACK_DIR, "current");
+    /** The packfile used when there is no CURRENT_FILE. */
+    static final File PACK_FILE = new File(PACK_DIR, "objects.pack");
+    /** The pack index used when there is no CURRENT_FILE. */
+    static final File INDEX_FILE = new File(PACK_DIR, "objects.idx");
+    /** Prefix of the names of packs written by repack. */
+    private static final String NAME_PREFIX = "pack-";
+
+    /** Magic number at the start of the pack. */
+    private static final int PACK_MAGIC = 0x47504b31;
+    /** Magic number at the start of the index. */
+    private static final int INDEX_MAGIC = 0x47494431;
+    /** Length of an entry header in the pack. */
+    private static final int ENTRY_HEADER = 18;
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = 20;
+    /** Number of preceding objects tried as delta bases. */
+    private static final int WINDOW = 10;
+    /** Longest chain of deltas allowed before storing an object whole. */
+    private static final int MAX_DEPTH = 50;
+    /** Block size used to match a delta target against its base. */
+    private static final int BLOCK = 16;
+    /** High bit of a delta opcode, marking a copy from the base. */
+    private static final int COPY_OP = 0x80;
+    /** Longest literal run in one insert opcode. */
+    private static final int MAX_INSERT = 0x7f;
+    /** Largest object repack holds in memory to try as a delta; larger
+     *  ones are streamed into the new pack whole. */
+    static final int DELTA_LIMIT = 1 << 20;
+
+    /** The currently open pack, or null. */
+    private static Pack _open;
+
+    /** The index, mapped into memory. */
+    private final MappedByteBuffer _index;
+    /** The pack file. */
+    private final RandomAccessFile _pack;
+    /** Number of objects in the pack. */
+    private final int _count;
+    /** Modification time of the file that named this pack, CURRENT_FILE
+     *  or the legacy index, when it was opened. */
+    private final long _stamp;
+    /** Name of the pair this pack was opened from. */
+    private final String _name;
+
+    /** Open the pack named NAME, whose naming file has modification time
+     *  STAMP. */
+    private Pack(String name, long stamp) throws IOException {
+        _name = name;
+        _stamp = stamp;
+        try (FileChannel ch = FileChannel.open(indexFile(name).toPath())) {
+            _index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (_index.getInt(0) != INDEX_MAGIC) {
+            throw new IOException("bad pack index");
+        }
+        _count = _index.getInt(4 + 255 * 4);
+        _pack = new RandomAccessFile(packFile(name), "r");
+    }
+
+    /** Return the packfile of the pair named NAME, or the legacy one if
+     *  NAME is null. */
+    private static File packFile(String name) {
+        return name == null ? PACK_FILE : new File(PACK_DIR, name + ".pack");
+    }
+
+    /** Return the index of the pair named NAME, or the legacy one if
+     *  NAME is null. */
+    private static File indexFile(String name) {
+        return name == null ? INDEX_FILE : new File(PACK_DIR, name + ".idx");
+    }
+
+    /** Return the pack of the current repository, or null if it has
+     *  none. */
+    static synchronized Pack open() {
+        long stamp = CURRENT_FILE.lastModified();
+        boolean legacy = stamp == 0;
+        if (legacy) {
+            if (!INDEX_FILE.isFile() || !PACK_FILE.isFile()) {
+                close();
+                return null;
+            }
+            stamp = INDEX_FILE.lastModified();
+        }
+        if (_open != null && _open._stamp == stamp
+            && (_open._name == null) == legacy) {
+            return _open;
+        }
+        close();
+        try {
+            _open = new Pack(legacy ? null
+                             : Utils.readContentsAsString(CURRENT_FILE).trim(),
+                             stamp);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return _open;
+    }
+
+    /** Release the currently open pack, if any. */
+    static synchronized void close() {
+        if (_open != null) {
+            try {
+                _open._pack.close();
+            } catch (IOException excp) {
+                /* Ignore. */
+            }
+            _open = null;
+        }
+    }
+
+    /** Return the contents of the object HASH of type TYPE from the
+     *  current pack, or null if it is not packed. */
+    static byte[] read(String hash, byte type) {
+        Pack pack = open();
+        if (pack == null) {
+            return null;
+        }
+        int k = pack.find(hash);
+        if (k < 0 || pack.typeAt(k) != type) {
+            return null;
+        }
+        return pack.readAt(pack.offsetAt(k));
+    }
+
+    /** Return true iff object HASH of type TYPE is in the current
+     *  pack. */
+    static boolean contains(String hash, byte type) {
+        Pack pack = open();
+        if (pack == null) {
+            return false;
+        }
+        int k = pack.find(hash);
+        return k >= 0 && pack.typeAt(k) == type;
+    }
+
+    /** Return the ids of all packed objects of type TYPE, in order. */
+    static List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        Pack pack = open();
+        if (pack != null) {
+            for (int k = 0; k < pack._count; k += 1) {
+                if (pack.typeAt(k) == type) {
+                    result.add(pack.idAt(k));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the position of HASH in the index, or -1. */
+    int find(String hash) {
+        if (hash == null || hash.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(hash);
+        int k = lowerBound(key);
+        return k < _count && compareId(k, key) == 0 ? k : -1;
+    }
+
+    /** Return the ids of up to LIMIT packed objects of type TYPE whose
+     *  hexadecimal ids start with PREFIX, in order.  The first id not
+     *  below PREFIX is found by binary search within its fan-out bucket,
+     *  so only the matching ids are visited. */
+    static List<String> withPrefix(String prefix, byte type, int limit) {
+        List<String> result = new ArrayList<>();
+        Pack pack = open();
+        if (pack == null) {
+            return result;
+        }
+        String low = prefix + "0".repeat(Utils.UID_LENGTH - prefix.length());
+        for (int k = pack.lowerBound(Utils.fromHex(low));
+             k < pack._count && result.size() < limit; k += 1) {
+            String id = pack.idAt(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            if (pack.typeAt(k) == type) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Return the position of the first id in the index that is not
+     *  below KEY, or the number of ids if there is none. */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1), hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Number of ids whose first byte is at most B. */
+    int fanout(int b) {
+        return _index.getInt(4 + 4 * b);
+    }
+
+    /** Return the hexadecimal id at position K of the index. */
+    String idAt(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _index.get(idStart() + k * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Return the type of the object at position K of the index. */
+    byte typeAt(int k) {
+        return _index.get(idStart() + _count * ID_BYTES + k);
+    }
+
+    /** Return the pack offset of the object at position K. */
+    long offsetAt(int k) {
+        return _index.getLong(idStart() + _count * (ID_BYTES + 1) + 8 * k);
+    }
+
+    /** Position of the first id in the index. */
+    private static int idStart() {
+        return 4 + 256 * 4;
+    }
+
+    /** Compare the id at position K with KEY. */
+    private int compareId(int k, byte[] key) {
+        int base = idStart() + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int c = (_index.get(base + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the size of the object whose entry is at OFFSET.  Only a
+     *  delta is inflated, to read the size it rebuilds. */
+    long sizeAt(long offset) {
+        ByteBuffer head = header(offset);
+        if (head.get(1) == 0) {
+            return head.getInt(10);
+        }
+        long[] base = new long[1];
+        byte[] data = entryAt(offset, base);
+        int[] pos = {0};
+        Utils.readVarint(data, pos);
+        return Utils.readVarint(data, pos);
+    }
+
+    /** Return the header of the entry at OFFSET. */
+    private ByteBuffer header(long offset) {
+        try {
+            ByteBuffer head = ByteBuffer.allocate(ENTRY_HEADER);
+            _pack.getChannel().read(head, offset);
+            head.flip();
+            return head;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the entry at OFFSET, which is not a delta, to OUT as it is
+     *  stored, header and all, without inflating it.  Returns the number
+     *  of bytes written. */
+    private long copyEntry(long offset, OutputStream out) throws IOException {
+        ByteBuffer head = header(offset);
+        long length = ENTRY_HEADER + (head.getInt(14) & 0xffffffffL);
+        byte[] buf = new byte[Utils.BUFFER_SIZE];
+        for (long done = 0; done < length;) {
+            int n = _pack.getChannel().read(
+                ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length,
+                                                       length - done)),
+                offset + done);
+            if (n < 0) {
+                throw new IOException("truncated pack entry");
+            }
+            out.write(buf, 0, n);
+            done += n;
+        }
+        return length;
+    }
+
+    /** Return the inflated payload of the entry at OFFSET, setting
+     *  BASE[0] to the offset of its delta base, or -1.  Safe to call
+     *  from several threads at once. */
+    private byte[] entryAt(long offset, long[] base) {
+        try {
+            ByteBuffer head = header(offset);
+            head.get();
+            boolean delta = head.get() != 0;
+            long baseOffset = head.getLong();
+            int rawLength = head.getInt();
+            byte[] stored = new byte[head.getInt()];
+            _pack.getChannel().read(ByteBuffer.wrap(stored),
+                                    offset + ENTRY_HEADER);
+            base[0] = delta ? baseOffset : -1;
+            return inflate(stored, rawLength);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the entry at OFFSET, applying deltas. */
+    byte[] readAt(long offset) {
+        ArrayDeque<byte[]> deltas = new ArrayDeque<>();
+        long[] base = new long[1];
+        while (true) {
+            byte[] data = entryAt(offset, base);
+            if (base[0] < 0) {
+                while (!deltas.isEmpty()) {
+                    data = applyDelta(data, deltas.pop());
+                }
+                return data;
+            }
+            deltas.push(data);
+            offset = base[0];
+        }
+    }
+
+    /* REPACKING */
+
+    /** An object to be written to a new pack. */
+    private static class Entry {
+        /** Hexadecimal id. */
+        private String id;
+        /** Type byte. */
+        private byte type;
+        /** Uncompressed size. */
+        private long size;
+        /** Path name the object was seen under, for blobs. */
+        private String name = "";
+        /** Contents, while the entry is inside the delta window. */
+        private byte[] data;
+        /** Offset of the entry in the old pack, or -1 if it is loose. */
+        private long from = -1;
+        /** Offset of the entry in the new pack. */
+        private long offset;
+        /** Length of the delta chain ending at this entry. */
+        private int depth;
+    }
+
+    /** Write every loose and packed object of the repository into a
+     *  single new pack with delta chains between similar objects, and
+     *  delete the loose copies.  The new pack and index are written
+     *  under a fresh name and synced, and then CURRENT_FILE is pointed at
+     *  them in one atomic step, so a crash leaves either the old pair or
+     *  the new one in use; only then are the old pair and the loose
+     *  copies deleted.  Returns the number of objects packed. */
+    static int repack() {
+        Map<String, Entry> all = new HashMap<>();
+        Pack old = open();
+        if (old != null) {
+            for (int k = 0; k < old._count; k += 1) {
+                long offset = old.offsetAt(k);
+                addEntry(all, old.idAt(k), old.typeAt(k),
+                         old.sizeAt(offset));
+                all.get(old.idAt(k)).from = offset;
+            }
+        }
+        for (String id : ObjectStore.looseCommitIds()) {
+            addEntry(all, id, COMMIT,
+                     ObjectStore.looseCommitFile(id).length());
+        }
+        for (String id : ObjectStore.looseTreeIds()) {
+            addEntry(all, id, TREE,
+                     ObjectStore.looseFile(id, TREE).length());
+        }
+        for (String id : ObjectStore.looseBlobIds()) {
+            addEntry(all, id, BLOB, ObjectStore.looseBlobFile(id).length());
+        }
+        for (Entry e : all.values()) {
+            if (ObjectStore.looseFile(e.id, e.type).isFile()) {
+                e.from = -1;
+            }
+        }
+        HashSet<String> seen = new HashSet<>();
+        for (Entry e : all.values()) {
+            if (e.type != COMMIT) {
+                continue;
+            }
+            Commits c = Commits.getCommit(e.id);
+            if (c.getTree() != null) {
+                nameBlobs(c.getTree(), "", all, seen);
+                continue;
+            }
+            for (Map.Entry<String, String> f : c.getFiles().entrySet()) {
+                Entry b = all.get(f.getValue());
+                if (b != null) {
+                    b.name = f.getKey();
+                }
+            }
+        }
+        List<Entry> order = new ArrayList<>(all.values());
+        order.sort(Comparator.comparingInt((Entry e) -> e.type)
+                   .thenComparing(e -> nameKey(e.name))
+                   .thenComparing(e -> -e.size));
+        PACK_DIR.mkdir();
+        String name = nextName(old);
+        try {
+            writePack(packFile(name), order, old);
+            writeIndex(indexFile(name), order);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(packFile(name));
+        Utils.syncLater(indexFile(name));
+        Utils.writeRef(CURRENT_FILE, name);
+        close();
+        for (File f : PACK_DIR.listFiles()) {
+            if (!f.equals(CURRENT_FILE) && !f.equals(packFile(name))
+                && !f.equals(indexFile(name))) {
+                f.delete();
+            }
+        }
+        for (Entry e : order) {
+            ObjectStore.looseFile(e.id, e.type).delete();
+        }
+        ObjectStore.removeEmptyDirs();
+        return order.size();
+    }
+
+    /** Name each blob of ALL that tree ID holds by its path there,
+     *  prefixed by PREFIX.  A tree in SEEN, such as a directory shared
+     *  with another commit, is skipped, and each one walked is added, so
+     *  that every tree is read once. */
+    private static void nameBlobs(String id, String prefix,
+                                  Map<String, Entry> all, Set<String> seen) {
+        if (!seen.add(id)) {
+            return;
+        }
+        for (Map.Entry<String, Tree.Entry> e : Tree.read(id).entrySet()) {
+            if (e.getValue().kind() == Tree.DIR) {
+                nameBlobs(e.getValue().id(), prefix + e.getKey() + "/", all,
+                          seen);
+            } else {
+                Entry b = all.get(e.getValue().id());
+                if (b != null) {
+                    b.name = prefix + e.getKey();
+                }
+            }
+        }
+    }
+
+    /** Record object ID of type TYPE and size SIZE in ALL, unless it is
+     *  already there. */
+    private static void addEntry(Map<String, Entry> all, String id,
+                                 byte type, long size) {
+        Entry e = all.get(id);
+        if (e == null) {
+            e = new Entry();
+            e.id = id;
+            all.put(id, e);
+        }
+        e.type = type;
+        e.size = size;
+    }
+
+    /** Return a name for the pack to replace OLD, which may be null,
+     *  that no pair in use has. */
+    private static String nextName(Pack old) {
+        int n = 1;
+        if (old != null && old._name != null) {
+            n = Integer.parseInt(old._name.substring(NAME_PREFIX.length()))
+                + 1;
+        }
+        return NAME_PREFIX + n;
+    }
+
+    /** Sort key that groups paths NAME ending in the same characters,
+     *  as revisions of one file usually do. */
+    private static String nameKey(String name) {
+        return new StringBuilder(name).reverse().toString();
+    }
+
+    /** Write the objects in ORDER to the pack file OUT, choosing for each
+     *  the smallest delta against the previous WINDOW objects of the
+     *  same type.  Objects are read loose or from OLD; one above
+     *  DELTA_LIMIT is never held in memory, but streamed in whole: copied
+     *  as it is stored from OLD, or deflated from its loose file, its
+     *  header completed once its lengths are known. */
+    private static void writePack(File out, List<Entry> order, Pack old)
+        throws IOException {
+        List<long[]> patches = new ArrayList<>();
+        try (DataOutputStream str = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(out),
+                                          Utils.BUFFER_SIZE))) {
+            str.writeInt(PACK_MAGIC);
+            str.writeInt(order.size());
+            long offset = 8;
+            ArrayDeque<Entry> window = new ArrayDeque<>();
+            for (Entry e : order) {
+                e.offset = offset;
+                if (e.from >= 0 && old.header(e.from).get(1) == 0
+                    && e.size > DELTA_LIMIT) {
+                    offset += old.copyEntry(e.from, str);
+                    continue;
+                }
+                if (e.from >= 0) {
+                    e.data = old.readAt(e.from);
+                } else {
+                    File loose = ObjectStore.looseFile(e.id, e.type);
+                    try (InputStream in =
+                             ObjectStore.openLoose(loose, e.type)) {
+                        e.data = in.readNBytes(DELTA_LIMIT + 1);
+                        if (e.data.length > DELTA_LIMIT) {
+                            offset += streamEntry(e, in, str, patches);
+                            continue;
+                        }
+                    }
+                }
+                e.size = e.data.length;
+                byte[] payload = e.data;
+                Entry base = null;
+                for (Entry cand : window) {
+                    if (cand.type != e.type || cand.depth >= MAX_DEPTH) {
+                        continue;
+                    }
+                    byte[] delta = makeDelta(cand.data, e.data);
+                    if (delta.length < e.data.length / 2
+                        && delta.length < payload.length) {
+                        payload = delta;
+                        base = cand;
+                    }
+                }
+                e.depth = base == null ? 0 : base.depth + 1;
+                byte[] stored = deflate(payload);
+                str.writeByte(e.type);
+                str.writeByte(base == null ? 0 : 1);
+                str.writeLong(base == null ? -1 : base.offset);
+                str.writeInt(payload.length);
+                str.writeInt(stored.length);
+                str.write(stored);
+                offset += ENTRY_HEADER + stored.length;
+                window.addLast(e);
+                if (window.size() > WINDOW) {
+                    window.removeFirst().data = null;
+                }
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(out, "rw")) {
+            for (long[] patch : patches) {
+                file.seek(patch[0] + ENTRY_HEADER - 8);
+                file.writeInt((int) patch[1]);
+                file.writeInt((int) patch[2]);
+            }
+        }
+    }
+
+    /** Write entry E to STR whole, deflating its contents: the E.data
+     *  already read, then the rest of IN.  The lengths in its header are
+     *  left 0 and recorded in PATCHES with its offset, to be filled in
+     *  once the pack is written.  Returns the length of the entry. */
+    private static long streamEntry(Entry e, InputStream in,
+                                    DataOutputStream str,
+                                    List<long[]> patches)
+        throws IOException {
+        str.writeByte(e.type);
+        str.writeByte(0);
+        str.writeLong(-1);
+        str.writeInt(0);
+        str.writeInt(0);
+        Deflater deflater = new Deflater();
+        byte[] buf = new byte[Utils.BUFFER_SIZE];
+        long raw = e.data.length, stored = 0;
+        try {
+            deflater.setInput(e.data);
+            stored += drain(deflater, buf, str);
+            e.data = null;
+            byte[] chunk = new byte[Utils.BUFFER_SIZE];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                deflater.setInput(chunk, 0, n);
+                raw += n;
+                stored += drain(deflater, buf, str);
+            }
+            deflater.finish();
+            stored += drain(deflater, buf, str);
+        } finally {
+            deflater.end();
+        }
+        if (raw > Integer.MAX_VALUE || stored > Integer.MAX_VALUE) {
+            throw Utils.error("Object %s is too large to pack.", e.id);
+        }
+        e.size = raw;
+        patches.add(new long[] { e.offset, raw, stored });
+        return ENTRY_HEADER + stored;
+    }
+
+    /** Write the output DEFLATER has ready to OUT through BUF, until it
+     *  needs more input or is finished.  Returns the bytes written. */
+    private static long drain(Deflater deflater, byte[] buf,
+                              OutputStream out) throws IOException {
+        long total = 0;
+        for (int n = deflater.deflate(buf); n > 0; n = deflater.deflate(buf)) {
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /** Write the index of the objects in ORDER to OUT. */
+    private static void writeIndex(File out, List<Entry> order)
+        throws IOException {
+        List<Entry> byId = new ArrayList<>(order);
+        byId.sort(Comparator.comparing(e -> e.id));
+        int[] fanout = new int[256];
+        for (Entry e : byId) {
+            fanout[Integer.parseInt(e.id.substring(0, 2), 16)] += 1;
+        }
+        try (DataOutputStream str = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(out)))) {
+            str.writeInt(INDEX_MAGIC);
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                str.writeInt(total);
+            }
+            for (Entry e : byId) {
+                str.write(Utils.fromHex(e.id));
+            }
+            for (Entry e : byId) {
+                str.writeByte(e.type);
+            }
+            for (Entry e : byId) {
+                str.writeLong(e.offset);
+            }
+        }
+    }
+
+    /* DELTAS */
+
+    /** Return instructions that rebuild TARGET from BASE: copies of runs
+     *  of BASE found through a table of its BLOCK-byte blocks, and
+     *  literal inserts of everything else. */
+    static byte[] makeDelta(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hashBlock(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utils.writeVarint(out, base.length);
+        Utils.writeVarint(out, target.length);
+        int pending = 0, i = 0;
+        while (i < target.length) {
+            Integer at = i + BLOCK <= target.length
+                ? blocks.get(hashBlock(target, i)) : null;
+            if (at == null || !Arrays.equals(base, at, at + BLOCK,
+                                             target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = at, len = BLOCK;
+            while (i + len < target.length && start + len < base.length
+                   && base[start + len] == target[i + len]) {
+                len += 1;
+            }
+            while (i > pending && start > 0
+                   && base[start - 1] == target[i - 1]) {
+                i -= 1;
+                start -= 1;
+                len += 1;
+            }
+            writeInsert(out, target, pending, i);
+            out.write(COPY_OP);
+            Utils.writeVarint(out, start);
+            Utils.writeVarint(out, len);
+            i += len;
+            pending = i;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Apply the instructions DELTA to BASE, returning the result. */
+    static byte[] applyDelta(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (Utils.readVarint(delta, pos) != base.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        byte[] result = new byte[(int) Utils.readVarint(delta, pos)];
+        int out = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY_OP) {
+                int from = (int) Utils.readVarint(delta, pos);
+                int len = (int) Utils.readVarint(delta, pos);
+                System.arraycopy(base, from, result, out, len);
+                out += len;
+            } else {
+                System.arraycopy(delta, pos[0], result, out, op);
+                pos[0] += op;
+                out += op;
+            }
+        }
+        return result;
+    }
+
+    /** Write TARGET[FROM .. TO) to OUT as insert instructions. */
+    private static void writeInsert(ByteArrayOutputStream out,
+                                    byte[] target, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(target, from, n);
+            from += n;
+        }
+    }
+
+    /** Hash of the BLOCK bytes of DATA starting at START. */
+    private static int hashBlock(byte[] data, int start) {
+        int h = 1;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    /* COMPRESSION AND IDS */
+
+    /** Return DATA compressed with zlib. */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Return the LENGTH bytes obtained by inflating DATA. */
+    static byte[] inflate(byte[] data, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] result = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int k = inflater.inflate(result, n, length - n);
+                if (k == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != length) {
+                throw new IllegalArgumentException("truncated pack entry");
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
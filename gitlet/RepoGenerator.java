@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Builds synthetic repositories for benchmarks and scale tests, in the
+ * current directory and through Command, so that they exercise the same
+ * code as real use.  A repository has FILES files spread over
+ * directories of FILES_PER_DIR, all added by its first commit, and a
+ * first-parent history of COMMITS commits on master, each changing
+ * CHANGES files.  Every MERGE_EVERY commits, if that is positive, a
+ * topic branch of TOPIC_LENGTH commits is forked and merged back by a
+ * further commit on master, so that the history has merges.  Halfway,
+ * a branch "other" is forked with one commit of its own, to check out
+ * and merge.  Master, topics and "other" change disjoint files, so
+ * merges never conflict.  File
+ * sizes are drawn between a minimum and a maximum, either uniformly or
+ * from a heavy-tailed Pareto distribution, and contents are printable
+ * text.  The same settings and seed always give the same files.
+ *
+ * @author Mohammad Khizar
+ */
+class RepoGenerator {
+
+    /** Number of files in each directory. */
+    static final int FILES_PER_DIR = 50;
+    /** Number of commits on each topic branch. */
+    static final int TOPIC_LENGTH = 2;
+    /** Shape of the Pareto distribution of file sizes. */
+    private static final double PARETO_SHAPE = 1.2;
+    /** Length of the lines of generated contents. */
+    private static final int LINE_LENGTH = 60;
+
+    /** Number of commits on master. */
+    private final int _commits;
+    /** Number of files. */
+    private final int _files;
+    /** Files changed by each commit. */
+    private int _changes = 3;
+    /** Commits between merges, or 0 for a linear history. */
+    private int _mergeEvery;
+    /** Smallest file size, in bytes. */
+    private int _minSize = 16;
+    /** Largest file size, in bytes. */
+    private int _maxSize = 1024;
+    /** True if file sizes are heavy-tailed rather than uniform. */
+    private boolean _pareto;
+    /** Source of sizes, file choices and contents. */
+    private Random _random = new Random(0);
+
+    /** A generator of repositories with COMMITS commits on master and
+     *  FILES files. */
+    RepoGenerator(int commits, int files) {
+        _commits = Math.max(1, commits);
+        _files = Math.max(1, files);
+    }
+
+    /** Change N files in each commit.  Returns this generator. */
+    RepoGenerator changes(int n) {
+        _changes = Math.max(1, n);
+        return this;
+    }
+
+    /** Merge a topic branch every N commits, or never if N is 0.
+     *  Returns this generator. */
+    RepoGenerator mergeEvery(int n) {
+        _mergeEvery = Math.max(0, n);
+        return this;
+    }
+
+    /** Draw file sizes from MIN to MAX bytes, from a Pareto distribution
+     *  if PARETO and uniformly otherwise.  Returns this generator. */
+    RepoGenerator sizes(int min, int max, boolean pareto) {
+        _minSize = Math.max(1, min);
+        _maxSize = Math.max(_minSize, max);
+        _pareto = pareto;
+        return this;
+    }
+
+    /** Generate from SEED.  Returns this generator. */
+    RepoGenerator seed(long seed) {
+        _random = new Random(seed);
+        return this;
+    }
+
+    /** Return the path of the Ith generated file. */
+    static String path(int i) {
+        return "dir" + (i / FILES_PER_DIR) + "/file" + i + ".txt";
+    }
+
+    /** Make the repository in the current directory, which must not
+     *  hold one yet, running its commands through C.  Leaves master
+     *  checked out. */
+    void generate(Command c) {
+        c.parseLine("init");
+        for (int i = 0; i < _files; i += 1) {
+            File f = new File(path(i));
+            f.getParentFile().mkdirs();
+            write(f, "file " + i);
+            c.parseLine("add", path(i));
+        }
+        c.parseLine("commit", "all files");
+        int own = Math.min(_changes, Math.max(1, _files / 4));
+        int topics = Math.max(1, (_files - own) / 4);
+        int low = Math.max(1, _files - own - topics);
+        for (int k = 1; k < _commits; k += 1) {
+            if (k == _commits / 2) {
+                c.parseLine("branch", "other");
+                c.parseLine("checkout", "other");
+                for (int j = 0; j < own; j += 1) {
+                    change(c, _files - 1 - j, "other");
+                }
+                c.parseLine("commit", "other changes");
+                c.parseLine("checkout", "master");
+            }
+            if (_mergeEvery > 0 && k % _mergeEvery == 0 && low < _files) {
+                String topic = "topic" + k;
+                c.parseLine("branch", topic);
+                c.parseLine("checkout", topic);
+                for (int t = 0; t < TOPIC_LENGTH; t += 1) {
+                    for (int j = 0; j < _changes; j += 1) {
+                        change(c, low + _random.nextInt(
+                                   Math.max(1, _files - own - low)),
+                               topic + " " + t);
+                    }
+                    c.parseLine("commit", topic + " change " + t);
+                }
+                c.parseLine("checkout", "master");
+            }
+            for (int j = 0; j < _changes; j += 1) {
+                change(c, _random.nextInt(low), "change " + k);
+            }
+            c.parseLine("commit", "change " + k);
+            if (_mergeEvery > 0 && k % _mergeEvery == 0 && low < _files) {
+                c.parseLine("merge", "topic" + k);
+            }
+        }
+    }
+
+    /** Rewrite the Ith file with contents headed by LABEL and add it
+     *  through C. */
+    private void change(Command c, int i, String label) {
+        write(new File(path(i)), label + " " + i);
+        c.parseLine("add", path(i));
+    }
+
+    /** Write FILE with a first line HEAD followed by printable text, of a
+     *  size drawn from the distribution. */
+    private void write(File file, String head) {
+        int size = size();
+        StringBuilder text = new StringBuilder(size + head.length() + 1);
+        text.append(head).append('\n');
+        for (int n = 0; n < size; n += 1) {
+            text.append((n + 1) % LINE_LENGTH == 0 ? '\n'
+                        : (char) ('a' + _random.nextInt(26)));
+        }
+        Utils.writeContents(file, text.toString());
+    }
+
+    /** Return a file size drawn from the distribution. */
+    private int size() {
+        if (!_pareto) {
+            return _minSize + _random.nextInt(_maxSize - _minSize + 1);
+        }
+        double u = 1 - _random.nextDouble();
+        return (int) Math.min(_maxSize,
+                              _minSize / Math.pow(u, 1 / PARETO_SHAPE));
+    }
+}
@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times every command against repositories of growing history depth
+ * and tree width, reports how each scales, and optionally fails when a
+ * command has slowed down against a stored baseline.  Run it in an
+ * empty directory, which it fills and empties for each repository:
+ *
+ *     java gitlet.ScaleBenchmark [--depths N,...] [--widths N,...]
+ *         [--changes N] [--merge-every N] [--sizes MIN:MAX]
+ *         [--pareto] [--repeat N] [--save FILE]
+ *         [--baseline FILE] [--max-ratio R] [--slack MS]
+ *
+ * Repositories are made by RepoGenerator: one per depth (number of
+ * commits), at the smallest width, and one per width (number of
+ * files), at the smallest depth, after an untimed run on the smallest
+ * to warm up the JVM.  Each command is timed REPEAT times,
+ * restoring the repository between runs where it changes it, and the
+ * median is kept.  For each command and series the report gives the
+ * times and the exponent x of the fitted growth n^x between the
+ * smallest and largest sizes.
+ *
+ * --save writes the times to FILE, one "COMMAND DEPTH WIDTH MS" line
+ * each.  --baseline reads such a file and exits with status 1 if any
+ * command took more than R (default 1.5) times its baseline and more
+ * than MS (default 2) milliseconds longer, so that noise on very fast
+ * commands does not fail the gate.
+ *
+ * @author Mohammad Khizar
+ */
+public class ScaleBenchmark {
+
+    /** Commands timed, in order. */
+    private static final String[] COMMANDS = {
+        "add", "commit", "rm", "status", "log", "global-log", "find",
+        "branch", "checkout", "reset", "merge",
+    };
+
+    /** Repetitions of each command. */
+    private int _repeat = 5;
+    /** Where the report goes. */
+    private final PrintStream _out = System.out;
+    /** Median times in milliseconds, by "COMMAND DEPTH WIDTH". */
+    private final LinkedHashMap<String, Double> _times =
+        new LinkedHashMap<>();
+
+    /** Run the scale test given by ARGS. */
+    public static void main(String... args) {
+        File[] present = new File(".").listFiles();
+        if (present == null || present.length > 0) {
+            System.err.println("Run in an empty directory.");
+            System.exit(1);
+        }
+        ScaleBenchmark test = new ScaleBenchmark();
+        int[] depths = {100, 400}, widths = {100, 400};
+        int changes = 3, mergeEvery = 10, minSize = 16, maxSize = 1024;
+        boolean pareto = false;
+        String save = null, baseline = null;
+        double maxRatio = 1.5, slack = 2;
+        for (int i = 0; i < args.length; i += 1) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+            case "--depths":
+                depths = sizes(value);
+                break;
+            case "--widths":
+                widths = sizes(value);
+                break;
+            case "--changes":
+                changes = Integer.parseInt(value);
+                break;
+            case "--merge-every":
+                mergeEvery = Integer.parseInt(value);
+                break;
+            case "--sizes":
+                int[] range = sizes(value.replace(':', ','));
+                minSize = range[0];
+                maxSize = range[range.length - 1];
+                break;
+            case "--pareto":
+                pareto = true;
+                continue;
+            case "--repeat":
+                test._repeat = Math.max(1, Integer.parseInt(value));
+                break;
+            case "--save":
+                save = value;
+                break;
+            case "--baseline":
+                baseline = value;
+                break;
+            case "--max-ratio":
+                maxRatio = Double.parseDouble(value);
+                break;
+            case "--slack":
+                slack = Double.parseDouble(value);
+                break;
+            default:
+                System.err.println("Unknown option " + args[i] + ".");
+                System.exit(1);
+            }
+            i += 1;
+        }
+
+        test.measure(new RepoGenerator(depths[0], widths[0]), 0, 0);
+        test._times.clear();
+        for (int depth : depths) {
+            test.measure(new RepoGenerator(depth, widths[0]).changes(changes)
+                         .mergeEvery(mergeEvery)
+                         .sizes(minSize, maxSize, pareto), depth, widths[0]);
+        }
+        for (int width : widths) {
+            if (width != widths[0]) {
+                test.measure(new RepoGenerator(depths[0], width)
+                             .changes(changes).mergeEvery(mergeEvery)
+                             .sizes(minSize, maxSize, pareto),
+                             depths[0], width);
+            }
+        }
+        test.report(depths, widths);
+        if (save != null) {
+            test.save(new File(save));
+        }
+        if (baseline != null
+            && !test.gate(new File(baseline), maxRatio, slack)) {
+            System.exit(1);
+        }
+    }
+
+    /** Return the numbers in the comma-separated LIST, in increasing
+     *  order. */
+    private static int[] sizes(String list) {
+        String[] words = list.split(",");
+        int[] result = new int[words.length];
+        for (int i = 0; i < words.length; i += 1) {
+            result[i] = Integer.parseInt(words[i].trim());
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Make the repository of GENERATOR, of DEPTH commits and WIDTH
+     *  files, time every command against it, and remove it. */
+    private void measure(RepoGenerator generator, int depth, int width) {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Command c = new Command();
+        try {
+            generator.generate(c);
+            String head = c.getHashedHead();
+            String parent = c.getHead().getParent();
+            String file = RepoGenerator.path(0);
+            File working = new File(file);
+            String original = Utils.readContentsAsString(working);
+            Map<String, Runnable> setUp = new HashMap<>();
+            Map<String, Runnable> run = new HashMap<>();
+            Map<String, Runnable> tearDown = new HashMap<>();
+
+            setUp.put("add", () -> Utils.writeContents(working, "scale\n"));
+            run.put("add", () -> c.parseLine("add", file));
+            tearDown.put("add", () -> {
+                    c.clearStage();
+                    Utils.writeContents(working, original);
+                });
+
+            setUp.put("commit", () -> {
+                    Utils.writeContents(working, "scale\n");
+                    c.parseLine("add", file);
+                });
+            run.put("commit", () -> c.parseLine("commit", "scale"));
+            tearDown.put("commit", () -> c.parseLine("reset", head));
+
+            run.put("rm", () -> c.parseLine("rm", file));
+            tearDown.put("rm", () -> {
+                    c.parseLine("reset", head);
+                    c.clearStage();
+                });
+
+            run.put("status", () -> c.parseLine("status"));
+            run.put("log", () -> c.parseLine("log"));
+            run.put("global-log", () -> c.parseLine("global-log"));
+            run.put("find", () -> c.parseLine("find", "other changes"));
+
+            run.put("branch", () -> c.parseLine("branch", "scale"));
+            tearDown.put("branch", () -> c.parseLine("rm-branch", "scale"));
+
+            run.put("checkout", () -> c.parseLine("checkout", "other"));
+            tearDown.put("checkout", () -> c.parseLine("checkout", "master"));
+
+            run.put("reset", () -> c.parseLine("reset", parent));
+            tearDown.put("reset", () -> c.parseLine("reset", head));
+
+            run.put("merge", () -> c.parseLine("merge", "other"));
+            tearDown.put("merge", () -> c.parseLine("reset", head));
+
+            for (String command : COMMANDS) {
+                double[] times = new double[_repeat];
+                for (int k = 0; k < _repeat; k += 1) {
+                    setUp.getOrDefault(command, () -> { }).run();
+                    long start = System.nanoTime();
+                    run.get(command).run();
+                    times[k] = (System.nanoTime() - start) / 1e6;
+                    tearDown.getOrDefault(command, () -> { }).run();
+                }
+                Arrays.sort(times);
+                _times.put(key(command, depth, width), times[_repeat / 2]);
+            }
+        } finally {
+            System.setOut(stdout);
+            removeAll(new File("."));
+        }
+    }
+
+    /** Delete everything in directory DIR. */
+    private static void removeAll(File dir) {
+        File[] entries = dir.listFiles();
+        for (File f : entries == null ? new File[0] : entries) {
+            if (f.isDirectory()) {
+                removeAll(f);
+            }
+            f.delete();
+        }
+    }
+
+    /** Return the key of the time of COMMAND at DEPTH and WIDTH. */
+    private static String key(String command, int depth, int width) {
+        return command + " " + depth + " " + width;
+    }
+
+    /** Print the times of every command by DEPTHS and by WIDTHS, with
+     *  their growth exponents. */
+    private void report(int[] depths, int[] widths) {
+        _out.printf("%-12s %-8s", "command", "series");
+        for (int i = 0; i < Math.max(depths.length, widths.length); i += 1) {
+            _out.printf(" %12s", "ms");
+        }
+        _out.printf(" %8s%n", "n^x");
+        for (String command : COMMANDS) {
+            double[] byDepth = new double[depths.length];
+            for (int i = 0; i < depths.length; i += 1) {
+                byDepth[i] = _times.get(key(command, depths[i], widths[0]));
+            }
+            row(command, "depth", depths, byDepth);
+            double[] byWidth = new double[widths.length];
+            for (int i = 0; i < widths.length; i += 1) {
+                byWidth[i] = _times.get(key(command, depths[0], widths[i]));
+            }
+            row(command, "width", widths, byWidth);
+        }
+    }
+
+    /** Print the row of COMMAND for SERIES, with times TIMES at SIZES. */
+    private void row(String command, String series, int[] sizes,
+                     double[] times) {
+        _out.printf("%-12s %-8s", command, series);
+        for (int i = 0; i < sizes.length; i += 1) {
+            _out.printf(Locale.ROOT, " %12s",
+                        String.format(Locale.ROOT, "%.2f@%d",
+                                      times[i], sizes[i]));
+        }
+        int last = sizes.length - 1;
+        if (last > 0 && times[0] > 0 && sizes[last] > sizes[0]) {
+            _out.printf(Locale.ROOT, " %8.2f%n", exponent(
+                sizes[0], times[0], sizes[last], times[last]));
+        } else {
+            _out.printf(" %8s%n", "-");
+        }
+    }
+
+    /** Return x such that a time T0 at size N0 growing as n^x gives T1
+     *  at size N1. */
+    static double exponent(double n0, double t0, double n1, double t1) {
+        return Math.log(t1 / t0) / Math.log(n1 / n0);
+    }
+
+    /** Write the times to FILE. */
+    private void save(File file) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Double> e : _times.entrySet()) {
+            text.append(e.getKey()).append(' ')
+                .append(String.format(Locale.ROOT, "%.3f", e.getValue()))
+                .append('\n');
+        }
+        Utils.writeContents(file, text.toString());
+    }
+
+    /** Compare the times with those in BASELINE, reporting each command
+     *  that took more than MAXRATIO times its baseline and more than
+     *  SLACK milliseconds longer.  Times missing from either side are
+     *  skipped.  Returns true iff there are none. */
+    private boolean gate(File baseline, double maxRatio, double slack) {
+        Map<String, Double> base = parseTimes(
+            Utils.readContentsAsString(baseline));
+        List<String> slower = regressions(base, _times, maxRatio, slack);
+        for (String line : slower) {
+            _out.println("Regression: " + line);
+        }
+        if (slower.isEmpty()) {
+            _out.printf(Locale.ROOT, "No command slower than %.2f times "
+                        + "its baseline.%n", maxRatio);
+        }
+        return slower.isEmpty();
+    }
+
+    /** Return the times in TEXT, written by save, by key. */
+    static Map<String, Double> parseTimes(String text) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (String line : text.split("\n")) {
+            int space = line.lastIndexOf(' ');
+            if (space > 0) {
+                result.put(line.substring(0, space),
+                           Double.parseDouble(line.substring(space + 1)));
+            }
+        }
+        return result;
+    }
+
+    /** Return a description of each key whose time in CURRENT exceeds
+     *  MAXRATIO times its time in BASE and is more than SLACK
+     *  milliseconds longer, in the order of CURRENT. */
+    static List<String> regressions(Map<String, Double> base,
+                                    Map<String, Double> current,
+                                    double maxRatio, double slack) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Double> e : current.entrySet()) {
+            Double old = base.get(e.getKey());
+            if (old != null && e.getValue() > old * maxRatio
+                && e.getValue() - old > slack) {
+                result.add(String.format(Locale.ROOT,
+                    "%s: %.3f ms against %.3f ms", e.getKey(),
+                    e.getValue(), old));
+            }
+        }
+        return result;
+    }
+}
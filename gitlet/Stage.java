@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The staging area (.gitlet/stage), kept apart from the commits so that
+ * commits never change once written.  The file is a log of records,
+ * each an operation byte and a file name, plus a raw blob id for
+ * additions; add and rm append a single record.  Loading replays the
+ * log, and compacts it once it has grown well past the live entries or
+ * ends in a record cut short by a crash.  Every change to the file is
+ * synced with the command's objects, by Utils.sync.
+ *
+ * @author Mohammad Khizar
+ */
+class Stage {
+
+    /** The file holding the staging area. */
+    static final File STAGE_FILE = new File(".gitlet/stage");
+
+    /** Record staging a file for addition. */
+    private static final byte ADD = 'A';
+    /** Record staging a file for removal. */
+    private static final byte REMOVE = 'R';
+    /** Record dropping a file from the staging area. */
+    private static final byte UNSTAGE = 'U';
+    /** Number of records tolerated beyond twice the live entries before
+     *  the log is compacted. */
+    private static final int SLACK = 64;
+
+    /** Files staged for addition, mapped to their blob ids. */
+    private final TreeMap<String, String> _added = new TreeMap<>();
+    /** Files staged for removal. */
+    private final TreeSet<String> _removed = new TreeSet<>();
+
+    /** Return the staging area of the current repository. */
+    static Stage load() {
+        Stage stage = new Stage();
+        if (!STAGE_FILE.isFile()) {
+            return stage;
+        }
+        int records = 0;
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                 Files.newInputStream(STAGE_FILE.toPath())))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException excp) {
+                    break;
+                }
+                String name, hash = null;
+                try {
+                    name = in.readUTF();
+                    if (op == ADD) {
+                        byte[] id = new byte[Utils.UID_LENGTH / 2];
+                        in.readFully(id);
+                        hash = Utils.toHex(id);
+                    }
+                } catch (EOFException excp) {
+                    torn = true;
+                    break;
+                }
+                stage.apply(op, name, hash);
+                records += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (torn || records > 2 * (stage._added.size()
+                                   + stage._removed.size()) + SLACK) {
+            stage.compact();
+        }
+        return stage;
+    }
+
+    /** Remove every entry from the staging area. */
+    static void clear() {
+        STAGE_FILE.delete();
+        Utils.syncLater(STAGE_FILE);
+    }
+
+    /** Return the files staged for addition, mapped to their blob ids. */
+    Map<String, String> getAdded() {
+        return Collections.unmodifiableMap(_added);
+    }
+
+    /** Return the files staged for removal. */
+    Set<String> getRemoved() {
+        return Collections.unmodifiableSet(_removed);
+    }
+
+    /** Return true iff nothing is staged. */
+    boolean isEmpty() {
+        return _added.isEmpty() && _removed.isEmpty();
+    }
+
+    /** Stage NAME for addition with blob id HASH. */
+    void add(String name, String hash) {
+        append(ADD, name, hash);
+    }
+
+    /** Stage NAME for removal. */
+    void remove(String name) {
+        append(REMOVE, name, null);
+    }
+
+    /** Drop NAME from the staging area. */
+    void unstage(String name) {
+        append(UNSTAGE, name, null);
+    }
+
+    /** Apply the record OP for NAME, with blob id HASH for additions. */
+    private void apply(byte op, String name, String hash) {
+        _added.remove(name);
+        _removed.remove(name);
+        if (op == ADD) {
+            _added.put(name, hash);
+        } else if (op == REMOVE) {
+            _removed.add(name);
+        }
+    }
+
+    /** Apply the record OP for NAME and HASH and append it to the log. */
+    private void append(byte op, String name, String hash) {
+        apply(op, name, hash);
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(STAGE_FILE, true)))) {
+            writeRecord(out, op, name, hash);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(STAGE_FILE);
+    }
+
+    /** Rewrite the log with one record per live entry. */
+    private void compact() {
+        File tmp = new File(STAGE_FILE.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Files.newOutputStream(tmp.toPath())))) {
+                for (Map.Entry<String, String> e : _added.entrySet()) {
+                    writeRecord(out, ADD, e.getKey(), e.getValue());
+                }
+                for (String name : _removed) {
+                    writeRecord(out, REMOVE, name, null);
+                }
+            }
+            Utils.replace(tmp.toPath(), STAGE_FILE.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.syncLater(STAGE_FILE);
+    }
+
+    /** Write the record OP for NAME and HASH to OUT. */
+    private static void writeRecord(DataOutputStream out, byte op,
+                                    String name, String hash)
+        throws IOException {
+        out.writeByte(op);
+        out.writeUTF(name);
+        if (op == ADD) {
+            out.write(Utils.fromHex(hash));
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stat cache (.gitlet/index): for each working file that has been
+ * hashed, its size, modification time, inode and SHA-1.  A file whose
+ * stat data still match its entry is not read again.  Entries for files
+ * modified within RACY_MILLIS of being hashed are never trusted, since
+ * a later change in the same clock tick would leave the stat data
+ * unchanged.
+ *
+ * @author Mohammad Khizar
+ */
+class StatCache {
+
+    /** The file holding the cache. */
+    static final File INDEX_FILE = new File(".gitlet/index");
+
+    /** Magic number at the start of the cache. */
+    private static final int MAGIC = 0x47535431;
+    /** Margin, in milliseconds, below which a modification time is too
+     *  close to the hashing time to be trusted. */
+    private static final long RACY_MILLIS = 2000;
+
+    /** The stat data and hash of one file. */
+    private static class Entry {
+        /** Size in bytes. */
+        private long size;
+        /** Modification time in nanoseconds. */
+        private long mtime;
+        /** Inode number, or 0 where unavailable. */
+        private long inode;
+        /** SHA-1 of the contents. */
+        private String hash;
+    }
+
+    /** The cache last loaded or saved, kept for a Daemon's next
+     *  request, and the stamp of the file it matches. */
+    private static StatCache _warm;
+    /** The size and modification time of INDEX_FILE when _warm was last
+     *  loaded or saved. */
+    private static String _warmStamp;
+
+    /** Entries by file name. */
+    private final HashMap<String, Entry> _entries = new HashMap<>();
+    /** True iff the cache has changed since it was read. */
+    private boolean _dirty;
+
+    /** Return the stat cache of the current repository. */
+    static StatCache load() {
+        if (_warm != null && stamp().equals(_warmStamp)) {
+            return _warm;
+        }
+        StatCache cache = new StatCache();
+        if (!INDEX_FILE.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                 Files.newInputStream(INDEX_FILE.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                return cache;
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                Entry e = new Entry();
+                e.size = in.readLong();
+                e.mtime = in.readLong();
+                e.inode = in.readLong();
+                byte[] hash = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(hash);
+                e.hash = Utils.toHex(hash);
+                cache._entries.put(name, e);
+            }
+        } catch (IOException excp) {
+            cache._entries.clear();
+        }
+        _warm = cache;
+        _warmStamp = stamp();
+        return cache;
+    }
+
+    /** Return a stamp of the size and modification time of INDEX_FILE,
+     *  which changes whenever another process rewrites it. */
+    private static String stamp() {
+        return INDEX_FILE.length() + ":" + INDEX_FILE.lastModified();
+    }
+
+    /** Return the SHA-1 of the contents of FILE, or null if it does not
+     *  exist, reading it only if its stat data have changed. */
+    String hash(File file) {
+        return hashAll(List.of(file)).get(file.getPath());
+    }
+
+    /** Return the SHA-1s of the contents of FILES, by path, with null
+     *  for those that do not exist.  As for hash(File), a file is read
+     *  only if its stat data have changed; such files are read and
+     *  hashed in parallel by Utils.runAll, and the cache is then
+     *  updated on the calling thread. */
+    Map<String, String> hashAll(Collection<File> files) {
+        Events.ScanEvent event = new Events.ScanEvent();
+        event.begin();
+        HashMap<String, String> result = new HashMap<>();
+        List<File> stale = new ArrayList<>();
+        List<Entry> stats = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getPath();
+            Entry current = stat(file);
+            Entry old = _entries.get(name);
+            if (current == null) {
+                if (old != null) {
+                    _entries.remove(name);
+                    _dirty = true;
+                }
+                result.put(name, null);
+            } else if (old != null && old.size == current.size
+                       && old.mtime == current.mtime
+                       && old.inode == current.inode) {
+                result.put(name, old.hash);
+            } else {
+                stale.add(file);
+                stats.add(current);
+            }
+        }
+        long now = System.currentTimeMillis();
+        List<String> hashes = sha1All(stale);
+        for (int i = 0; i < stale.size(); i += 1) {
+            String name = stale.get(i).getPath();
+            Entry current = stats.get(i);
+            current.hash = hashes.get(i);
+            if (TimeUnit.NANOSECONDS.toMillis(current.mtime)
+                < now - RACY_MILLIS) {
+                _entries.put(name, current);
+                _dirty = true;
+            } else if (_entries.remove(name) != null) {
+                _dirty = true;
+            }
+            result.put(name, current.hash);
+        }
+        if (event.shouldCommit()) {
+            event.kind = "hash";
+            event.files = files.size();
+            event.filesRead = stale.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    /** Return the SHA-1s of the contents of FILES, in order, reading
+     *  several files at once when there is more than one. */
+    private static List<String> sha1All(List<File> files) {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (File file : files) {
+            tasks.add(() -> Utils.sha1(file));
+        }
+        return Utils.runAll(tasks);
+    }
+
+    /** Write the cache back if it has changed. */
+    void save() {
+        if (!_dirty) {
+            return;
+        }
+        File tmp = new File(INDEX_FILE.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(_entries.size());
+                for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue().size);
+                    out.writeLong(e.getValue().mtime);
+                    out.writeLong(e.getValue().inode);
+                    out.write(Utils.fromHex(e.getValue().hash));
+                }
+            }
+            Files.move(tmp.toPath(), INDEX_FILE.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+            _dirty = false;
+            _warm = this;
+            _warmStamp = stamp();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the stat data of FILE, without a hash, or null if FILE is
+     *  not a plain file. */
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            Entry e = new Entry();
+            e.size = attrs.size();
+            e.mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            e.inode = inode(path);
+            return e;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return the inode number of PATH, or 0 where the file system does
+     *  not report one. */
+    private static long inode(Path path) {
+        try {
+            Object ino = Files.getAttribute(path, "unix:ino");
+            return ino instanceof Number ? ((Number) ino).longValue() : 0;
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return 0;
+        }
+    }
+}
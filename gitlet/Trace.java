@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the work done by a command: for each kind of operation,
+ * the calls made, the bytes read or written and the time spent.  A
+ * command run as "java gitlet.Main --trace COMMAND ...", or any command
+ * while the environment variable GITLET_TRACE is set to something other
+ * than "0", prints them as a table to the standard error when it ends,
+ * with its total time, the bytes read and written, the objects decoded
+ * and the commit cache's hits and misses.  Operations on several
+ * threads at once all count, so their times can add up to more than the
+ * command's.  When tracing is off, an instrumented operation costs one
+ * test of a static flag.
+ *
+ * @author Mohammad Khizar
+ */
+class Trace {
+
+    /** Argument before a command that traces it. */
+    static final String FLAG = "--trace";
+    /** Name of the environment variable that traces every command. */
+    static final String ENV = "GITLET_TRACE";
+
+    /** Kinds of operations counted. */
+    enum Op {
+        /** Utils.readContents. */
+        READ_CONTENTS("readContents", 1),
+        /** Utils.writeContents. */
+        WRITE_CONTENTS("writeContents", -1),
+        /** Utils.readObject. */
+        READ_OBJECT("readObject", 1),
+        /** Utils.writeObject. */
+        WRITE_OBJECT("writeObject", 0),
+        /** Utils.deserialize. */
+        DESERIALIZE("deserialize", 0),
+        /** Utils.sha1, of data or of a file. */
+        SHA1("sha1", 0),
+        /** Utils.plainFilenamesIn and Utils.workingFiles. */
+        LIST_FILES("list files", 0),
+        /** ObjectStore.read, of a loose or packed object. */
+        OBJECT_READ("object read", 1),
+        /** ObjectStore.write. */
+        OBJECT_WRITE("object write", -1),
+        /** ObjectStore.writeBlob, of a working file. */
+        BLOB_WRITE("blob write", -1),
+        /** ObjectStore.checkout, of a blob to a working file. */
+        CHECKOUT("checkout file", -1),
+        /** Commits.decode. */
+        COMMIT_DECODE("decode commit", 0),
+        /** Tree.decode. */
+        TREE_DECODE("decode tree", 0);
+
+        /** Name shown in the table. */
+        private final String _label;
+        /** 1 if the bytes are read from disk, -1 if written, else 0. */
+        private final int _direction;
+
+        /** An operation shown as LABEL whose bytes go in DIRECTION. */
+        Op(String label, int direction) {
+            _label = label;
+            _direction = direction;
+        }
+    }
+
+    /** True if GITLET_TRACE asks to trace every command. */
+    private static final boolean ALWAYS = setting();
+    /** Calls, bytes and nanoseconds of each Op, three slots each. */
+    private static final AtomicLongArray COUNTS =
+        new AtomicLongArray(3 * Op.values().length);
+    /** True while a command is being traced. */
+    private static volatile boolean _enabled = ALWAYS;
+    /** Commit cache hits and misses when the traced command began. */
+    private static long _hits, _misses;
+
+    /** Return true iff GITLET_TRACE is set to trace every command. */
+    private static boolean setting() {
+        String value = System.getenv(ENV);
+        return value != null && !value.isEmpty() && !value.equals("0");
+    }
+
+    /** Return true iff operations are being counted. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Begin a command, traced if FLAG or GITLET_TRACE asks for it, and
+     *  return its start time for finish. */
+    static long begin(boolean flag) {
+        _enabled = flag || ALWAYS;
+        if (!_enabled) {
+            return 0;
+        }
+        for (int k = 0; k < COUNTS.length(); k += 1) {
+            COUNTS.set(k, 0);
+        }
+        _hits = CommitCache.get().hits();
+        _misses = CommitCache.get().misses();
+        return System.nanoTime();
+    }
+
+    /** Return the start time of an operation, or 0 if not tracing. */
+    static long start() {
+        return _enabled ? System.nanoTime() : 0;
+    }
+
+    /** Count an operation of kind OP begun at START, as returned by
+     *  start, that moved BYTES bytes. */
+    static void end(Op op, long start, long bytes) {
+        if (!_enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        int k = 3 * op.ordinal();
+        COUNTS.incrementAndGet(k);
+        COUNTS.addAndGet(k + 1, bytes);
+        COUNTS.addAndGet(k + 2, nanos);
+    }
+
+    /** End COMMAND, begun at START, printing its table to the standard
+     *  error if it was traced. */
+    static void finish(String command, long start) {
+        if (!_enabled) {
+            return;
+        }
+        long total = System.nanoTime() - start;
+        _enabled = ALWAYS;
+        print(System.err, command, total);
+    }
+
+    /** Print the table of COMMAND, which took TOTAL nanoseconds, to
+     *  OUT. */
+    private static void print(PrintStream out, String command, long total) {
+        long read = 0, written = 0, decoded = 0;
+        out.printf(Locale.ROOT, "trace: %s took %.3f ms%n", command,
+                   total / 1e6);
+        out.printf("  %-16s %10s %14s %12s%n", "operation", "calls",
+                   "bytes", "ms");
+        for (Op op : Op.values()) {
+            int k = 3 * op.ordinal();
+            long calls = COUNTS.get(k), bytes = COUNTS.get(k + 1);
+            if (calls == 0) {
+                continue;
+            }
+            out.printf(Locale.ROOT, "  %-16s %10d %14d %12.3f%n", op._label,
+                       calls, bytes, COUNTS.get(k + 2) / 1e6);
+            if (op._direction > 0) {
+                read += bytes;
+            } else if (op._direction < 0) {
+                written += bytes;
+            }
+            if (op == Op.COMMIT_DECODE || op == Op.TREE_DECODE
+                || op == Op.DESERIALIZE || op == Op.READ_OBJECT) {
+                decoded += calls;
+            }
+        }
+        CommitCache cache = CommitCache.get();
+        out.printf("  read %d bytes, wrote %d bytes, decoded %d objects; "
+                   + "commit cache %d hits, %d misses%n", read, written,
+                   decoded, cache.hits() - _hits, cache.misses() - _misses);
+        out.flush();
+    }
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tree objects: the files of a commit, one object per directory, so that
+ * a commit shares every directory it leaves unchanged with its parent.
+ * A tree is stored as the four bytes "GLT" and a format version, a
+ * varint count, and its entries sorted by name, each a kind byte (FILE
+ * or DIR), a varint-length UTF-8 name and the raw 20-byte id of a blob
+ * or a subtree.  Its id is the SHA-1 of that encoding, so identical
+ * directories are stored once.  Paths use '/' between components.
+ *
+ * @author Mohammad Khizar
+ */
+class Tree {
+
+    /** Kind byte of an entry naming a blob. */
+    static final byte FILE = 'f';
+    /** Kind byte of an entry naming a subtree. */
+    static final byte DIR = 'd';
+
+    /** Leading bytes of an encoded tree, ending in the format version. */
+    private static final byte[] MAGIC = {'G', 'L', 'T', 1};
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** One entry of a tree. */
+    static final class Entry {
+        /** FILE or DIR. */
+        private final byte _kind;
+        /** Blob or subtree id. */
+        private final String _id;
+
+        /** An entry of kind KIND for object ID. */
+        Entry(byte kind, String id) {
+            _kind = kind;
+            _id = id;
+        }
+
+        /** Return FILE or DIR. */
+        byte kind() {
+            return _kind;
+        }
+
+        /** Return the blob or subtree id. */
+        String id() {
+            return _id;
+        }
+    }
+
+    /** Return the id of the tree obtained from tree ROOT, or from an
+     *  empty tree if ROOT is null, by applying CHANGES: each maps a path
+     *  to the blob id it now has, or to null if it is removed.  Only the
+     *  trees on the paths of CHANGES are read and written; every other
+     *  subtree keeps its id. */
+    static String update(String root, Map<String, String> changes) {
+        return write(updated(root, changes));
+    }
+
+    /** Return the entries of tree ROOT, or of an empty tree if ROOT is
+     *  null, after applying CHANGES as for update, writing the subtrees
+     *  they alter.  A directory left empty is dropped. */
+    private static TreeMap<String, Entry> updated(String root,
+                                                  Map<String, String> changes) {
+        TreeMap<String, Entry> entries =
+            root == null ? new TreeMap<>() : read(root);
+        TreeMap<String, Map<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                                      x -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() != null) {
+                entries.put(path, new Entry(FILE, change.getValue()));
+            } else if (entries.containsKey(path)
+                       && entries.get(path).kind() == FILE) {
+                entries.remove(path);
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : below.entrySet()) {
+            Entry old = entries.get(dir.getKey());
+            TreeMap<String, Entry> sub =
+                updated(old != null && old.kind() == DIR ? old.id() : null,
+                        dir.getValue());
+            if (!sub.isEmpty()) {
+                entries.put(dir.getKey(), new Entry(DIR, write(sub)));
+            } else if (old != null && old.kind() == DIR) {
+                entries.remove(dir.getKey());
+            }
+        }
+        return entries;
+    }
+
+    /** Return the blob id of the file at PATH in tree ROOT, or null if
+     *  there is none.  Only the trees of the directories on PATH are
+     *  read. */
+    static String lookup(String root, String path) {
+        String id = root;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', start)) {
+            Entry dir = read(id).get(path.substring(start, slash));
+            if (dir == null || dir.kind() != DIR) {
+                return null;
+            }
+            id = dir.id();
+            start = slash + 1;
+        }
+        Entry file = read(id).get(path.substring(start));
+        return file == null || file.kind() != FILE ? null : file.id();
+    }
+
+    /** Return the files of tree ROOT and its subtrees, mapping each path
+     *  to its blob id. */
+    static HashMap<String, String> flatten(String root) {
+        HashMap<String, String> result = new HashMap<>();
+        flatten(root, "", result);
+        return result;
+    }
+
+    /** Add the files of tree ID to RESULT, their paths prefixed by
+     *  PREFIX. */
+    private static void flatten(String id, String prefix,
+                                Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(id).entrySet()) {
+            if (e.getValue().kind() == DIR) {
+                flatten(e.getValue().id(), prefix + e.getKey() + "/", result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue().id());
+            }
+        }
+    }
+
+    /** Store a tree holding ENTRIES, by name, unless it is already
+     *  stored, and return its id. */
+    static String write(TreeMap<String, Entry> entries) {
+        byte[] data = encode(entries);
+        String id = Utils.sha1(data);
+        if (!ObjectStore.contains(id, Pack.TREE)) {
+            ObjectStore.write(id, Pack.TREE, data);
+        }
+        return id;
+    }
+
+    /** Return the entries of tree ID, by name. */
+    static TreeMap<String, Entry> read(String id) {
+        byte[] data = ObjectStore.read(id, Pack.TREE);
+        if (data == null) {
+            throw Utils.error("Missing tree %s.", id);
+        }
+        return decode(data);
+    }
+
+    /** Return the encoding of a tree holding ENTRIES. */
+    static byte[] encode(TreeMap<String, Entry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        Utils.writeVarint(out, entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.write(e.getValue().kind());
+            Utils.writeVarint(out, name.length);
+            out.writeBytes(name);
+            out.writeBytes(Utils.fromHex(e.getValue().id()));
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the entries of the tree encoded in DATA, by name. */
+    static TreeMap<String, Entry> decode(byte[] data) {
+        if (data.length < MAGIC.length
+            || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IllegalArgumentException("bad tree object");
+        }
+        long start = Trace.start();
+        TreeMap<String, Entry> result = new TreeMap<>();
+        int[] pos = {MAGIC.length};
+        for (long n = Utils.readVarint(data, pos); n > 0; n -= 1) {
+            byte kind = data[pos[0]++];
+            int len = (int) Utils.readVarint(data, pos);
+            String name = new String(data, pos[0], len, StandardCharsets.UTF_8);
+            pos[0] += len;
+            String id = Utils.toHex(
+                Arrays.copyOfRange(data, pos[0], pos[0] + ID_BYTES));
+            pos[0] += ID_BYTES;
+            result.put(name, new Entry(kind, id));
+        }
+        Trace.end(Trace.Op.TREE_DECODE, start, data.length);
+        return result;
+    }
+}
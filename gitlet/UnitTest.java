@@ -3,6 +3,11 @@ package gitlet;
 import ucb.junit.textui;
 import org.junit.Test;
 
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 /**
@@ -27,6 +32,106 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
-}
+    /**
+     * A delta rebuilds its target from the base.
+     */
+
+    @Test
+    public void deltaTest() {
+        byte[] base = new byte[4096];
+        for (int i = 0; i < base.length; i += 1) {
+            base[i] = (byte) (i * i % 251);
+        }
+        byte[] target = new byte[base.length + 5];
+        System.arraycopy(base, 0, target, 5, base.length);
+        byte[] delta = Pack.makeDelta(base, target);
+        assertEquals(true, delta.length < 64);
+        assertArrayEquals(target, Pack.applyDelta(base, delta));
+    }
+
+    /**
+     * A commit survives encoding and decoding, and its encoding does not
+     * depend on the order files were added in.
+     */
+
+    @Test
+    public void commitEncodingTest() {
+        Commits c = new Commits("a message", new Date(12345), null);
+        c.getFiles().put("b.txt", Utils.sha1("b"));
+        c.getFiles().put("a.txt", Utils.sha1("a"));
+        Commits d = Commits.decode(c.encode());
+        assertEquals("a message", d.logMessage());
+        assertEquals(12345, d.getTimeCommit().getTime());
+        assertEquals(null, d.getParent());
+        assertEquals(c.getFiles(), d.getFiles());
+        assertArrayEquals(c.encode(), d.encode());
+        assertEquals(c.hash(), d.hash());
+    }
 
+    /**
+     * Batch lines split into words like a shell command line.
+     */
 
+    @Test
+    public void batchSplitTest() {
+        assertArrayEquals(new String[] {"commit", "a message", "x"},
+                          Batch.split("  commit \"a message\"  x "));
+        assertArrayEquals(new String[] {"find", "say \"hi\"", ""},
+                          Batch.split("find say\\ \\\"hi\\\" \"\""));
+        assertArrayEquals(new String[0], Batch.split("   "));
+    }
+
+    /**
+     * The commit cache evicts the least recently used commits to stay
+     * within its budget, and counts hits and misses.
+     */
+
+    @Test
+    public void commitCacheTest() {
+        Commits a = new Commits("a", new Date(0), null);
+        Commits b = new Commits("b", new Date(0), null);
+        Commits c = new Commits("c", new Date(0), null);
+        long each = CommitCache.weigh(a);
+        CommitCache cache = new CommitCache(2 * each);
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.lookup("a"));
+        cache.put("c", c);
+        assertNull(cache.lookup("b"));
+        assertSame(a, cache.lookup("a"));
+        assertSame(c, cache.lookup("c"));
+        assertEquals(2, cache.size());
+        assertEquals(2 * each, cache.bytes());
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+
+        CommitCache off = new CommitCache(0);
+        off.put("a", a);
+        assertNull(off.lookup("a"));
+        assertEquals(64L << 20, CommitCache.parseSize("64m"));
+        assertEquals(1536, CommitCache.parseSize(" 1536 "));
+    }
+
+    /**
+     * The scale benchmark's gate flags only times that grew past both
+     * the ratio and the slack, and reads back the times it saves.
+     */
+
+    @Test
+    public void regressionGateTest() {
+        Map<String, Double> base =
+            ScaleBenchmark.parseTimes("log 100 100 10.000\n"
+                                      + "add 100 100 0.500\n"
+                                      + "merge 100 100 4.000\n");
+        assertEquals(10.0, base.get("log 100 100"), 0);
+        Map<String, Double> now = new LinkedHashMap<>();
+        now.put("log 100 100", 16.0);
+        now.put("add 100 100", 1.5);
+        now.put("merge 100 100", 5.0);
+        now.put("status 100 100", 99.0);
+        List<String> slower = ScaleBenchmark.regressions(base, now, 1.5, 2);
+        assertEquals(1, slower.size());
+        assertTrue(slower.get(0).startsWith("log 100 100:"));
+        assertEquals(2.0, ScaleBenchmark.exponent(10, 1, 100, 100), 1e-9);
+    }
+}
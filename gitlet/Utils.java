@@ -1,22 +1,40 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 
 /** Assorted utilities.
@@ -29,30 +47,79 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Trace.start(), size = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
+                byte[] bytes;
                 if (val instanceof byte[]) {
-                    md.update((byte[]) val);
+                    bytes = (byte[]) val;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
+                md.update(bytes);
+                size += bytes.length;
             }
             Formatter result = new Formatter();
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            Trace.end(Trace.Op.SHA1, start, size);
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  fixed-size buffer so that FILE may be of any size.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        long start = Trace.start(), size = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = sha1Digest();
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                size += n;
+            }
+            Trace.end(Trace.Op.SHA1, start, size);
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a fresh SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** The hexadecimal digits, in order. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -84,6 +151,28 @@ class Utils {
         return restrictedDelete(new File(file));
     }
 
+    /** Deletes the working file at PATH, a '/'-separated path relative to
+     *  the working directory, and then each directory on PATH that it
+     *  leaves empty.  Returns true if the file was deleted.  Refuses to
+     *  delete anything and throws IllegalArgumentException unless the
+     *  working directory contains a directory named .gitlet. */
+    static boolean deleteWorkingFile(String path) {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = new File(path);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        for (File dir = file.getParentFile(); dir != null
+                 && !dir.getPath().equals("."); dir = dir.getParentFile()) {
+            if (!dir.delete()) {
+                break;
+            }
+        }
+        return true;
+    }
+
     /* READING AND WRITING FILE CONTENTS */
 
     /** Return the entire contents of FILE as a byte array.  FILE must
@@ -94,7 +183,10 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            long start = Trace.start();
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.end(Trace.Op.READ_CONTENTS, start, result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -109,38 +201,73 @@ class Utils {
 
     /** Write the result of concatenating the bytes in CONTENTS to FILE,
      *  creating or overwriting it as needed.  Each object in CONTENTS may be
-     *  either a String or a byte array.  Throws IllegalArgumentException
-     *  in case of problems. */
+     *  either a String or a byte array.  FILE is rewritten in place, so it
+     *  keeps its permissions; refs, which must not tear, are written with
+     *  writeRef instead.  Throws IllegalArgumentException in case of
+     *  problems. */
     static void writeContents(File file, Object... contents) {
         try {
             if (file.isDirectory()) {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
+            long start = Trace.start(), size = 0;
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                size += bytes.length;
             }
             str.close();
+            Trace.end(Trace.Op.WRITE_CONTENTS, start, size);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Rename SOURCE to TARGET, replacing TARGET atomically where the file
+     *  system allows it. */
+    static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException excp) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
+            long start = Trace.start();
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.end(Trace.Op.READ_OBJECT, start, file.length());
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from the serialized contents
+     *  DATA, casting it to EXPECTEDCLASS.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        try {
+            long start = Trace.start();
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            Trace.end(Trace.Op.DESERIALIZE, start, data.length);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -150,7 +277,10 @@ class Utils {
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        long start = Trace.start();
+        byte[] data = serialize(obj);
+        writeContents(file, data);
+        Trace.end(Trace.Op.WRITE_OBJECT, start, data.length);
     }
 
     /* DIRECTORIES */
@@ -168,7 +298,9 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        long start = Trace.start();
         String[] files = dir.list(PLAIN_FILES);
+        Trace.end(Trace.Op.LIST_FILES, start, 0);
         if (files == null) {
             return null;
         } else {
@@ -184,6 +316,41 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the '/'-separated paths, relative to the working
+     *  directory, of all plain files beneath it other than those in
+     *  .gitlet, in lexicographic order as Java Strings. */
+    static List<String> workingFiles() {
+        Events.ScanEvent event = new Events.ScanEvent();
+        event.begin();
+        long start = Trace.start();
+        List<String> result = new ArrayList<>();
+        addWorkingFiles(new File("."), "", result);
+        Collections.sort(result);
+        Trace.end(Trace.Op.LIST_FILES, start, 0);
+        if (event.shouldCommit()) {
+            event.kind = "list";
+            event.files = result.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    /** Add to RESULT the paths of the plain files beneath DIR, each
+     *  prefixed by PREFIX. */
+    private static void addWorkingFiles(File dir, String prefix,
+                                        List<String> result) {
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            File file = new File(dir, name);
+            if (file.isFile()) {
+                result.add(prefix + name);
+            } else if (file.isDirectory()
+                       && !(prefix.isEmpty() && name.equals(".gitlet"))) {
+                addWorkingFiles(file, prefix + name + "/", result);
+            }
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -218,6 +385,191 @@ class Utils {
 
 
 
+    /* BINARY ENCODING */
+
+    /** Writes VAL to OUT, seven bits per byte, low bits first. */
+    static void writeVarint(ByteArrayOutputStream out, long val) {
+        while ((val & ~0x7fL) != 0) {
+            out.write((int) ((val & 0x7f) | 0x80));
+            val >>>= 7;
+        }
+        out.write((int) val);
+    }
+
+    /** Reads a value written by writeVarint from DATA at POS[0],
+     *  advancing POS[0]. */
+    static long readVarint(byte[] data, int[] pos) {
+        long val = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos[0]++] & 0xff;
+            val |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return val;
+            }
+        }
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+                                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /* DURABILITY */
+
+    /** Files written since the last sync, and their directories.  The
+     *  set lives only as long as the process, so Command.parseLine syncs
+     *  it when every command ends: an object written by one command,
+     *  such as a blob by add, is on disk before a later one can name it
+     *  in a ref. */
+    private static final Set<Path> UNSYNCED = ConcurrentHashMap.newKeySet();
+
+    /** Record that FILE, just renamed into place, must reach the disk
+     *  before the next sync returns. */
+    static void syncLater(File file) {
+        Path path = file.toPath().toAbsolutePath();
+        UNSYNCED.add(path);
+        UNSYNCED.add(path.getParent());
+    }
+
+    /** Force every file recorded by syncLater to disk, then the
+     *  directories holding them, each once.  This costs one fsync per
+     *  file written plus one per directory: Java has no call that syncs
+     *  a whole file system, and syncing a directory does not reach the
+     *  data of the files in it.  The files are forced IO_THREADS at a
+     *  time, so that the file system can fold their journal commits
+     *  together instead of waiting for each in turn. */
+    static void sync() {
+        if (UNSYNCED.isEmpty()) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>(UNSYNCED);
+        UNSYNCED.removeAll(paths);
+        List<Callable<Void>> files = new ArrayList<>();
+        List<Path> dirs = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                dirs.add(path);
+            } else {
+                files.add(() -> force(path));
+            }
+        }
+        runAll(files);
+        for (Path dir : dirs) {
+            force(dir);
+        }
+    }
+
+    /** Force the file or directory PATH to disk, if it still exists.
+     *  Returns null. */
+    private static Void force(Path path) {
+        try (FileChannel ch = FileChannel.open(path,
+                                               StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path)) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /** Directory of the temporary files refs are written through.  It
+     *  is inside .gitlet, so renaming out of it is atomic, but apart from
+     *  the branches, so a file left by a crash is never taken for one. */
+    static final File TEMP_DIR = new File(".gitlet/tmp");
+
+    /** Point the ref FILE, such as a branch or .gitlet/head, at VALUE
+     *  durably: first sync every object written so far, so that the ref
+     *  never names one a crash could lose, then write VALUE to a
+     *  temporary file, force it to disk, rename it over FILE and force
+     *  FILE's directory.  A crash leaves either the old value or the
+     *  new, never a torn mix. */
+    static void writeRef(File file, String value) {
+        sync();
+        File tmp = null;
+        try {
+            TEMP_DIR.mkdir();
+            tmp = File.createTempFile("ref", ".tmp", TEMP_DIR);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(value.getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            replace(tmp.toPath(), file.toPath());
+            tmp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+        force(file.toPath().toAbsolutePath().getParent());
+    }
+
+    /* PARALLEL I/O */
+
+    /** Largest number of file operations run at once: one per processor,
+     *  but no more than a file system is likely to serve concurrently. */
+    static final int IO_THREADS =
+        Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 16));
+
+    /** Run TASKS, at most IO_THREADS at a time, and return their results
+     *  in order.  A single task runs on the calling thread.  An exception
+     *  thrown by a task is rethrown. */
+    static <T> List<T> runAll(List<Callable<T>> tasks) {
+        List<T> result = new ArrayList<>();
+        streamAll(tasks, result::add);
+        return result;
+    }
+
+    /** Run TASKS, at most IO_THREADS at a time on a work-stealing pool,
+     *  and pass their results in order to ACTION on the calling thread,
+     *  each as soon as it and those before it are done.  A single task
+     *  runs on the calling thread.  An exception thrown by a task or by
+     *  ACTION is rethrown, and the tasks not yet started are dropped. */
+    static <T> void streamAll(List<Callable<T>> tasks, Consumer<T> action) {
+        if (tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                try {
+                    action.accept(task.call());
+                } catch (RuntimeException excp) {
+                    throw excp;
+                } catch (Exception excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            return;
+        }
+        ForkJoinPool pool =
+            new ForkJoinPool(Math.min(IO_THREADS, tasks.size()));
+        try {
+            List<Future<T>> values = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                values.add(pool.submit(task));
+            }
+            for (Future<T> value : values) {
+                action.accept(value.get());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as